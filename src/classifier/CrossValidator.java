@@ -0,0 +1,215 @@
+package classifier;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+
+import main.Genre;
+
+/**
+ * Estimates the accuracy of a classifier by k-fold cross-validation over the
+ * songs in a feature store. The songs are shuffled with a fixed seed and split
+ * into k test sets. For each test set, a new classifier is trained on the
+ * remaining songs and scored on the test set.
+ *
+ * The folds are independent of each other, so they are run concurrently, each
+ * with its own classifier. Since the shuffle is seeded, every classifier that
+ * is validated sees the same folds.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class CrossValidator {
+	private FeatureStore store;
+	private int folds;
+	private long seed;
+	private int parallelism;
+
+	/**
+	 * Creates a validator that splits the songs of the store into the given
+	 * number of folds and runs as many folds at once as there are available
+	 * processors.
+	 *
+	 * @param store
+	 * @param folds
+	 * @param seed
+	 */
+	public CrossValidator(FeatureStore store, int folds, long seed) {
+		this(store, folds, seed, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a validator that runs at most the given number of folds at once.
+	 * Each running fold holds a trained classifier, so this bounds the memory
+	 * used. There cannot be more folds than songs, since every fold must test
+	 * at least one song.
+	 *
+	 * @param store
+	 * @param folds
+	 * @param seed
+	 * @param parallelism
+	 */
+	public CrossValidator(FeatureStore store, int folds, long seed, int parallelism) {
+		if (folds < 2) {
+			throw new Error("cross-validation requires at least 2 folds");
+		}
+		if (folds > store.songCount()) {
+			throw new Error("cannot split " + store.songCount() + " songs into " + folds + " folds");
+		}
+		this.store = store;
+		this.folds = folds;
+		this.seed = seed;
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Creates a validator which holds out one song at a time, so that every
+	 * song is classified by a classifier trained on all the others. This
+	 * trains as many classifiers as there are songs, so it is best used with
+	 * classifiers which share their work between folds, such as nearest
+	 * neighbour classifiers searching a SharedIndex.
+	 *
+	 * @param store
+	 * @return
+	 */
+	public static CrossValidator leaveOneSongOut(FeatureStore store) {
+		return new CrossValidator(store, store.songCount(), 0);
+	}
+
+	/**
+	 * Cross-validates the classifiers created by the supplier, which is called
+	 * once per fold.
+	 *
+	 * @param supplier
+	 * @return
+	 */
+	public Result validate(Supplier<? extends SongClassifier> supplier) {
+		List<Integer> songs = new ArrayList<>();
+		for (int i = 0; i < store.songCount(); ++i) {
+			songs.add(i);
+		}
+		Collections.shuffle(songs, new Random(seed));
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, folds));
+		try {
+			List<Future<Double>> results = new ArrayList<>();
+			for (int i = 0; i < folds; ++i) {
+				int fold = i;
+				results.add(executor.submit(() -> validate(supplier.get(), songs, fold)));
+			}
+			double[] accuracies = new double[folds];
+			for (int i = 0; i < folds; ++i) {
+				accuracies[i] = get(results.get(i));
+			}
+			return new Result(accuracies);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private double validate(SongClassifier classifier, List<Integer> songs, int fold) {
+		int n = songs.size();
+		int testSetSize = n / folds;
+		int begin = fold * testSetSize;
+		int end = (fold + 1) * testSetSize;
+		for (int j = 0; j < n; ++j) {
+			if (j >= begin && j < end) {
+				continue;
+			}
+			classifier.add(store, songs.get(j));
+		}
+		classifier.train();
+		int[] testSet = new int[testSetSize];
+		for (int j = begin; j < end; ++j) {
+			testSet[j - begin] = songs.get(j);
+		}
+		Genre[] genres = classifier.classifyAll(store, testSet);
+		int correct = 0;
+		for (int j = 0; j < testSetSize; ++j) {
+			if (genres[j].equals(store.genre(testSet[j]))) {
+				++correct;
+			}
+		}
+		return (double) (correct) / testSetSize;
+	}
+
+	private static double get(Future<Double> result) {
+		try {
+			return result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new Error("cross-validation was interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new Error(cause);
+		}
+	}
+
+	/**
+	 * The accuracy of a classifier on each fold of a cross-validation.
+	 */
+	public static class Result {
+		private double[] accuracies;
+
+		public Result(double[] accuracies) {
+			this.accuracies = accuracies;
+		}
+
+		/**
+		 * Returns the accuracy on each fold.
+		 *
+		 * @return
+		 */
+		public double[] accuracies() {
+			return accuracies.clone();
+		}
+
+		/**
+		 * Returns the mean accuracy over all folds.
+		 *
+		 * @return
+		 */
+		public double mean() {
+			double sum = 0;
+			for (double accuracy : accuracies) {
+				sum += accuracy;
+			}
+			return sum / accuracies.length;
+		}
+
+		/**
+		 * Returns the sample variance of the accuracy over all folds.
+		 *
+		 * @return
+		 */
+		public double variance() {
+			double mean = mean();
+			double sum = 0;
+			for (double accuracy : accuracies) {
+				sum += (accuracy - mean) * (accuracy - mean);
+			}
+			return sum / (accuracies.length - 1);
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder result = new StringBuilder();
+			for (double accuracy : accuracies) {
+				result.append(accuracy).append("; ");
+			}
+			result.append("mean ").append(mean()).append(", variance ").append(variance());
+			return result.toString();
+		}
+	}
+}
@@ -27,6 +27,13 @@ public class EnsembleClassifier implements SongClassifier {
 		}
 	}
 
+	@Override
+	public void add(FeatureStore store, int song) {
+		for (SongClassifier classifier : classifiers) {
+			classifier.add(store, song);
+		}
+	}
+
 	@Override
 	public void train() {
 		for (SongClassifier classifier : classifiers) {
@@ -43,6 +50,25 @@ public class EnsembleClassifier implements SongClassifier {
 		return plurality.vote();
 	}
 
+	@Override
+	public Genre[] classifyAll(FeatureStore store, int[] songs) {
+		// Lets each classifier handle the whole batch so that it can share work
+		// between songs, then votes on each song.
+		List<Genre[]> votes = new ArrayList<>();
+		for (SongClassifier classifier : classifiers) {
+			votes.add(classifier.classifyAll(store, songs));
+		}
+		Genre[] result = new Genre[songs.length];
+		for (int i = 0; i < songs.length; ++i) {
+			Plurality<Genre> plurality = new Plurality<>();
+			for (Genre[] vote : votes) {
+				plurality.add(vote[i]);
+			}
+			result[i] = plurality.vote();
+		}
+		return result;
+	}
+
 	@Override
 	public void clear() {
 		for (SongClassifier classifier : classifiers) {
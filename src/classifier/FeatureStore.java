@@ -0,0 +1,407 @@
+package classifier;
+
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import main.Genre;
+
+/**
+ * A columnar store for the frames of a set of songs. All frames are kept in a
+ * single contiguous buffer of doubles and are identified by their frame id,
+ * with the genre of each frame held in a primitive column. The frames of a
+ * song occupy a contiguous range of frame ids.
+ *
+ * A store can be shared between any number of classifiers, which index into it
+ * by frame id rather than keeping copies of the data.
+ *
+ * A store can also be compacted into a read-only copy whose values are held at
+ * a lower precision, which cuts the memory used by its frames and the
+ * bandwidth needed to read them. The values are converted back to doubles as
+ * they are read.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class FeatureStore {
+	private static final Genre[] GENRES = Genre.class.getEnumConstants();
+
+	/**
+	 * The genre label used for frames whose genre is not known.
+	 */
+	public static final byte UNKNOWN = -1;
+
+	private int dataSize;
+	private Precision precision = Precision.FLOAT64;
+	private double[] data = null;
+	private DoubleBuffer frames;
+	// The values of a compacted store. A store held in doubles reads its
+	// buffer directly and has none.
+	private Values values = null;
+	private byte[] labels;
+	private int frameCount = 0;
+	private String[] names;
+	private byte[] songLabels;
+	private int[] offsets;
+	private int songCount = 0;
+
+	/**
+	 * Creates an empty store for frames of the given size.
+	 *
+	 * @param dataSize
+	 */
+	public FeatureStore(int dataSize) {
+		this(dataSize, 1024);
+	}
+
+	/**
+	 * Creates an empty store for frames of the given size with room for the
+	 * given number of frames before it needs to grow.
+	 *
+	 * @param dataSize
+	 * @param capacity
+	 */
+	public FeatureStore(int dataSize, int capacity) {
+		this.dataSize = dataSize;
+		capacity = Math.max(capacity, 1);
+		data = new double[capacity * dataSize];
+		frames = DoubleBuffer.wrap(data);
+		labels = new byte[capacity];
+		names = new String[16];
+		songLabels = new byte[16];
+		offsets = new int[17];
+	}
+
+	/**
+	 * Creates a read-only store over existing frames. The frames of song i
+	 * are found between frame ids offsets[i] and offsets[i + 1].
+	 *
+	 * @param dataSize
+	 * @param frames
+	 * @param names
+	 * @param songLabels
+	 * @param offsets
+	 */
+	public FeatureStore(int dataSize, DoubleBuffer frames, String[] names, byte[] songLabels, int[] offsets) {
+		this(dataSize, Precision.FLOAT64, null, names, songLabels, offsets);
+		this.frames = frames;
+	}
+
+	private FeatureStore(int dataSize, Precision precision, Values values, String[] names, byte[] songLabels,
+			int[] offsets) {
+		this.dataSize = dataSize;
+		this.precision = precision;
+		this.values = values;
+		this.names = names;
+		this.songLabels = songLabels;
+		this.offsets = offsets;
+		songCount = names.length;
+		frameCount = offsets[songCount];
+		labels = new byte[frameCount];
+		for (int song = 0; song < songCount; ++song) {
+			Arrays.fill(labels, offsets[song], offsets[song + 1], songLabels[song]);
+		}
+	}
+
+	/**
+	 * Adds a song to the store and returns its song id. The genre may be null
+	 * if it is not known.
+	 *
+	 * @param name
+	 * @param song
+	 * @param genre
+	 * @return
+	 */
+	public int add(String name, List<double[]> song, Genre genre) {
+		int id = begin(name, song.size(), genre);
+		int frame = offsets[id];
+		for (double[] feature : song) {
+			System.arraycopy(feature, 0, data, frame * dataSize, dataSize);
+			++frame;
+		}
+		return id;
+	}
+
+	/**
+	 * Adds a song whose frames are laid out one after the other in the given
+	 * array and returns its song id. The genre may be null if it is not known.
+	 *
+	 * @param name
+	 * @param song
+	 * @param size
+	 *            The number of frames in the song.
+	 * @param genre
+	 * @return
+	 */
+	public int add(String name, double[] song, int size, Genre genre) {
+		int id = begin(name, size, genre);
+		System.arraycopy(song, 0, data, offsets[id] * dataSize, size * dataSize);
+		return id;
+	}
+
+	private int begin(String name, int size, Genre genre) {
+		if (data == null) {
+			throw new Error("feature store is read-only");
+		}
+		reserve(frameCount + size);
+		if (songCount == names.length) {
+			int capacity = 2 * names.length;
+			names = Arrays.copyOf(names, capacity);
+			songLabels = Arrays.copyOf(songLabels, capacity);
+			offsets = Arrays.copyOf(offsets, capacity + 1);
+		}
+		byte label = genre == null ? UNKNOWN : (byte) genre.ordinal();
+		int id = songCount++;
+		names[id] = name;
+		songLabels[id] = label;
+		Arrays.fill(labels, frameCount, frameCount + size, label);
+		frameCount += size;
+		offsets[songCount] = frameCount;
+		return id;
+	}
+
+	private void reserve(int capacity) {
+		if (capacity <= labels.length) {
+			return;
+		}
+		capacity = Math.max(capacity, 2 * labels.length);
+		data = Arrays.copyOf(data, capacity * dataSize);
+		frames = DoubleBuffer.wrap(data);
+		labels = Arrays.copyOf(labels, capacity);
+	}
+
+	/**
+	 * Returns a read-only copy of the store whose values are held at the given
+	 * precision. Integer values are scaled separately along each axis to cover
+	 * the range of the values on that axis.
+	 *
+	 * @param precision
+	 * @return
+	 */
+	public FeatureStore compact(Precision precision) {
+		int size = frameCount * dataSize;
+		String[] names = Arrays.copyOf(this.names, songCount);
+		byte[] songLabels = Arrays.copyOf(this.songLabels, songCount);
+		int[] offsets = Arrays.copyOf(this.offsets, songCount + 1);
+		switch (precision) {
+		case FLOAT64: {
+			double[] data = new double[size];
+			for (int i = 0; i < size; ++i) {
+				data[i] = value(i, i % dataSize);
+			}
+			return new FeatureStore(dataSize, DoubleBuffer.wrap(data), names, songLabels, offsets);
+		}
+		case FLOAT32: {
+			float[] data = new float[size];
+			for (int i = 0; i < size; ++i) {
+				data[i] = (float) value(i, i % dataSize);
+			}
+			return new FeatureStore(dataSize, precision, (index, axis) -> data[index], names, songLabels, offsets);
+		}
+		default:
+			break;
+		}
+
+		// Finds the range of each axis to scale the integers over.
+		double[] lower = new double[dataSize];
+		double[] upper = new double[dataSize];
+		Arrays.fill(lower, Double.POSITIVE_INFINITY);
+		Arrays.fill(upper, Double.NEGATIVE_INFINITY);
+		for (int i = 0; i < size; ++i) {
+			int axis = i % dataSize;
+			double value = value(i, axis);
+			lower[axis] = Math.min(lower[axis], value);
+			upper[axis] = Math.max(upper[axis], value);
+		}
+		double[] scales = new double[dataSize];
+		double[] levels = new double[dataSize];
+		for (int axis = 0; axis < dataSize; ++axis) {
+			scales[axis] = precision.scale(lower[axis], upper[axis]);
+			levels[axis] = precision.offset(lower[axis], scales[axis]);
+		}
+		if (precision == Precision.INT16) {
+			short[] data = new short[size];
+			for (int i = 0; i < size; ++i) {
+				int axis = i % dataSize;
+				data[i] = (short) precision.quantize(value(i, axis), levels[axis], scales[axis]);
+			}
+			return new FeatureStore(dataSize, precision, (index, axis) -> levels[axis] + data[index] * scales[axis],
+					names, songLabels, offsets);
+		}
+		byte[] data = new byte[size];
+		for (int i = 0; i < size; ++i) {
+			int axis = i % dataSize;
+			data[i] = (byte) precision.quantize(value(i, axis), levels[axis], scales[axis]);
+		}
+		return new FeatureStore(dataSize, precision, (index, axis) -> levels[axis] + data[index] * scales[axis],
+				names, songLabels, offsets);
+	}
+
+	/**
+	 * Returns the precision at which the values of the store are held.
+	 *
+	 * @return
+	 */
+	public Precision precision() {
+		return precision;
+	}
+
+	/**
+	 * Returns the number of values in each frame.
+	 *
+	 * @return
+	 */
+	public int dataSize() {
+		return dataSize;
+	}
+
+	/**
+	 * Returns the total number of frames in the store.
+	 *
+	 * @return
+	 */
+	public int frameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Returns the number of songs in the store.
+	 *
+	 * @return
+	 */
+	public int songCount() {
+		return songCount;
+	}
+
+	/**
+	 * Returns the name of the song, or null if it was added without one.
+	 *
+	 * @param song
+	 * @return
+	 */
+	public String name(int song) {
+		return names[song];
+	}
+
+	/**
+	 * Returns the genre of the song, or null if it is not known.
+	 *
+	 * @param song
+	 * @return
+	 */
+	public Genre genre(int song) {
+		byte label = songLabels[song];
+		return label == UNKNOWN ? null : GENRES[label];
+	}
+
+	/**
+	 * Returns the id of the first frame of the song.
+	 *
+	 * @param song
+	 * @return
+	 */
+	public int begin(int song) {
+		return offsets[song];
+	}
+
+	/**
+	 * Returns one past the id of the last frame of the song.
+	 *
+	 * @param song
+	 * @return
+	 */
+	public int end(int song) {
+		return offsets[song + 1];
+	}
+
+	/**
+	 * Returns the genre label of the frame. This is the ordinal of its genre,
+	 * or UNKNOWN.
+	 *
+	 * @param frame
+	 * @return
+	 */
+	public byte label(int frame) {
+		return labels[frame];
+	}
+
+	/**
+	 * Returns the value of the frame along the given axis.
+	 *
+	 * @param frame
+	 * @param axis
+	 * @return
+	 */
+	public double get(int frame, int axis) {
+		return value(frame * dataSize + axis, axis);
+	}
+
+	/**
+	 * Copies the frame into the given array and returns it.
+	 *
+	 * @param frame
+	 * @param feature
+	 * @return
+	 */
+	public double[] get(int frame, double[] feature) {
+		get(frame, feature, 0);
+		return feature;
+	}
+
+	/**
+	 * Copies the frame into the given array, starting at the given offset.
+	 *
+	 * @param frame
+	 * @param out
+	 * @param offset
+	 */
+	public void get(int frame, double[] out, int offset) {
+		int begin = frame * dataSize;
+		if (precision == Precision.FLOAT64) {
+			for (int i = 0; i < dataSize; ++i) {
+				out[offset + i] = frames.get(begin + i);
+			}
+			return;
+		}
+		for (int i = 0; i < dataSize; ++i) {
+			out[offset + i] = values.get(begin + i, i);
+		}
+	}
+
+	/**
+	 * Returns the value at the given index of the frames. A store held in
+	 * doubles reads it straight from its buffer, so that only compacted stores
+	 * go through a call to their values, which is slow once stores of several
+	 * precisions have been read.
+	 */
+	private double value(int index, int axis) {
+		if (precision == Precision.FLOAT64) {
+			return frames.get(index);
+		}
+		return values.get(index, axis);
+	}
+
+	/**
+	 * Returns a copy of the frames of the song.
+	 *
+	 * @param song
+	 * @return
+	 */
+	public List<double[]> song(int song) {
+		List<double[]> result = new ArrayList<>(end(song) - begin(song));
+		for (int frame = begin(song); frame < end(song); ++frame) {
+			result.add(get(frame, new double[dataSize]));
+		}
+		return result;
+	}
+
+	/**
+	 * The values of all the frames of a compacted store, one after the other,
+	 * at the precision of the store.
+	 */
+	@FunctionalInterface
+	private interface Values {
+		double get(int index, int axis);
+	}
+}
@@ -0,0 +1,83 @@
+package classifier;
+
+/**
+ * The precision at which the values of frames are stored. Floating point
+ * values are stored as they are, rounded to the nearest float in single
+ * precision. Integer values are scaled along each axis so that the range of
+ * the axis is split evenly between all the levels of the integer type, and a
+ * value is stored as the nearest level.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public enum Precision {
+	FLOAT64(Double.BYTES), FLOAT32(Float.BYTES), INT16(Short.BYTES), INT8(Byte.BYTES);
+
+	private final int bytes;
+
+	private Precision(int bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Returns the number of bytes used to store a value.
+	 *
+	 * @return
+	 */
+	public int bytes() {
+		return bytes;
+	}
+
+	/**
+	 * Returns true if values are stored as scaled integers.
+	 *
+	 * @return
+	 */
+	public boolean isInteger() {
+		return this == INT16 || this == INT8;
+	}
+
+	/**
+	 * Returns the distance between consecutive levels for an axis whose values
+	 * lie between lower and upper.
+	 *
+	 * @param lower
+	 * @param upper
+	 * @return
+	 */
+	public double scale(double lower, double upper) {
+		if (!isInteger()) {
+			throw new Error(this + " values are not scaled");
+		}
+		long levels = 1L << (8 * bytes);
+		return upper > lower ? (upper - lower) / (levels - 1) : 1;
+	}
+
+	/**
+	 * Returns the value of level 0 for an axis whose lowest value is lower.
+	 * The lowest value is then stored as the smallest value of the integer
+	 * type.
+	 *
+	 * @param lower
+	 * @param scale
+	 * @return
+	 */
+	public double offset(double lower, double scale) {
+		return lower + (1L << (8 * bytes - 1)) * scale;
+	}
+
+	/**
+	 * Returns the level nearest to the value, clamped to the range of the
+	 * integer type. The value is approximately offset + level * scale.
+	 *
+	 * @param value
+	 * @param offset
+	 * @param scale
+	 * @return
+	 */
+	public int quantize(double value, double offset, double scale) {
+		long max = (1L << (8 * bytes - 1)) - 1;
+		long level = Math.round((value - offset) / scale);
+		return (int) Math.max(-max - 1, Math.min(max, level));
+	}
+}
@@ -1,6 +1,7 @@
 package classifier;
 
 import java.util.List;
+import java.util.stream.IntStream;
 
 import main.Genre;
 
@@ -19,6 +20,19 @@ public interface SongClassifier {
 	 */
 	public void add(List<double[]> song, Genre genre);
 
+	/**
+	 * Adds the song with the given id in the store to the training set, along
+	 * with its genre in the store. Classifiers that keep the frames of the
+	 * training set refer to them by frame id instead of copying them, so a
+	 * single store can be shared between many classifiers.
+	 * 
+	 * @param store
+	 * @param song
+	 */
+	public default void add(FeatureStore store, int song) {
+		add(store.song(song), store.genre(song));
+	}
+
 	/**
 	 * Trains the classifier. This method must be called after the training data
 	 * has been added and before new data can be classified.
@@ -34,6 +48,25 @@ public interface SongClassifier {
 	 */
 	public Genre classify(List<double[]> song);
 
+	/**
+	 * Returns the most likely genre for each of the songs with the given ids
+	 * in the store, in the same order as the ids. The classifier must be
+	 * trained before this method is called.
+	 * 
+	 * By default, the songs are classified in parallel, which requires
+	 * classify to be safe to call from multiple threads. Classifiers that can
+	 * share work between songs override this method.
+	 * 
+	 * @param store
+	 * @param songs
+	 * @return
+	 */
+	public default Genre[] classifyAll(FeatureStore store, int[] songs) {
+		Genre[] result = new Genre[songs.length];
+		IntStream.range(0, songs.length).parallel().forEach(i -> result[i] = classify(store.song(songs[i])));
+		return result;
+	}
+
 	/**
 	 * Clears the training data.
 	 */
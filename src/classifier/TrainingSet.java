@@ -0,0 +1,105 @@
+package classifier;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import main.Genre;
+import main.Song;
+
+/**
+ * Keeps track of the songs a classifier has been given to train on. Songs are
+ * referred to by their id in a feature store, so no frame data is copied when
+ * they come from a shared store. Songs added without a store are placed in a
+ * private store owned by the training set.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class TrainingSet {
+	private FeatureStore store = null;
+	private boolean owned = false;
+	private List<Integer> songs = new ArrayList<>();
+
+	/**
+	 * Adds the (song, genre) pair to the training set.
+	 *
+	 * @param song
+	 * @param genre
+	 */
+	public void add(List<double[]> song, Genre genre) {
+		if (store == null) {
+			store = new FeatureStore(Song.FEATURES);
+			owned = true;
+		} else if (!owned) {
+			throw new Error("cannot mix songs from a shared feature store with other songs");
+		}
+		songs.add(store.add(null, song, genre));
+	}
+
+	/**
+	 * Adds the song with the given id in the store to the training set.
+	 *
+	 * @param store
+	 * @param song
+	 */
+	public void add(FeatureStore store, int song) {
+		if (this.store == null) {
+			this.store = store;
+		} else if (this.store != store) {
+			throw new Error("all songs must come from the same feature store");
+		}
+		songs.add(song);
+	}
+
+	/**
+	 * Returns the store the songs are held in, or null if no songs have been
+	 * added.
+	 *
+	 * @return
+	 */
+	public FeatureStore store() {
+		return store;
+	}
+
+	/**
+	 * Returns the ids of the songs in the training set.
+	 *
+	 * @return
+	 */
+	public int[] songs() {
+		int[] result = new int[songs.size()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = songs.get(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the ids of all the frames in the training set.
+	 *
+	 * @return
+	 */
+	public int[] frames() {
+		int size = 0;
+		for (int song : songs) {
+			size += store.end(song) - store.begin(song);
+		}
+		int[] result = new int[size];
+		int index = 0;
+		for (int song : songs) {
+			for (int frame = store.begin(song); frame < store.end(song); ++frame) {
+				result[index++] = frame;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Clears the training set.
+	 */
+	public void clear() {
+		store = null;
+		owned = false;
+		songs = new ArrayList<>();
+	}
+}
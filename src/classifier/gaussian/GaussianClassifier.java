@@ -4,10 +4,10 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import classifier.FeatureStore;
 import classifier.SongClassifier;
 import main.Genre;
 import main.Song;
-import numeric.Matrix;
 import numeric.Stats;
 
 /**
@@ -23,8 +23,7 @@ import numeric.Stats;
  */
 public class GaussianClassifier implements SongClassifier {
 	private Map<Genre, Stats> stats = new HashMap<>();
-	private Map<Genre, double[]> averages = new HashMap<>();
-	private Map<Genre, double[][]> inverseCovs = new HashMap<>();
+	private Gaussians gaussians = null;
 
 	public GaussianClassifier() {
 		for (Genre genre : Genre.class.getEnumConstants()) {
@@ -43,11 +42,18 @@ public class GaussianClassifier implements SongClassifier {
 	}
 
 	@Override
-	public void train() {
-		for (Genre genre : Genre.class.getEnumConstants()) {
-			averages.put(genre, stats.get(genre).average());
-			inverseCovs.put(genre, Matrix.invert(stats.get(genre).covariance()));
+	public void add(FeatureStore store, int song) {
+		Stats songStats = new Stats(Song.FEATURES);
+		double[] feature = new double[Song.FEATURES];
+		for (int frame = store.begin(song); frame < store.end(song); ++frame) {
+			songStats.add(store.get(frame, feature));
 		}
+		stats.get(store.genre(song)).add(songStats.average());
+	}
+
+	@Override
+	public void train() {
+		gaussians = new Gaussians(stats, Song.FEATURES);
 	}
 
 	@Override
@@ -60,30 +66,19 @@ public class GaussianClassifier implements SongClassifier {
 		double[] feature = songStats.average();
 
 		// Minimizes the UNLL over all possible genres.
-		Genre result = null;
-		double unll = Double.MAX_VALUE;
-		for (Genre genre : Genre.class.getEnumConstants()) {
-			double[] average = averages.get(genre);
-			double[][] inverseCov = inverseCovs.get(genre);
-			double unllCandidate = 0;
-			for (int i = 0; i < Song.FEATURES; ++i) {
-				for (int j = 0; j < Song.FEATURES; ++j) {
-					unllCandidate += (feature[i] - average[i]) * inverseCov[i][j] * (feature[j] - average[j]);
-				}
-			}
-			if (unllCandidate < unll) {
-				unll = unllCandidate;
-				result = genre;
-			}
+		double[] block = new double[Gaussians.BLOCK_SIZE * Song.FEATURES];
+		for (int axis = 0; axis < Song.FEATURES; ++axis) {
+			block[axis * Gaussians.BLOCK_SIZE] = feature[axis];
 		}
-		return result;
+		double[] unlls = new double[Genre.class.getEnumConstants().length];
+		gaussians.add(block, 1, unlls);
+		return Gaussians.best(unlls);
 	}
 
 	@Override
 	public void clear() {
 		stats = new HashMap<>();
-		averages = new HashMap<>();
-		inverseCovs = new HashMap<>();
+		gaussians = null;
 		for (Genre genre : Genre.class.getEnumConstants()) {
 			stats.put(genre, new Stats(Song.FEATURES));
 		}
@@ -0,0 +1,231 @@
+package classifier.gaussian;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import main.Genre;
+import numeric.Matrix;
+import numeric.Stats;
+
+/**
+ * The Gaussian distributions of the genres, prepared for scoring frames.
+ *
+ * The covariance of each genre is factored as L * L^T, and the inverse W of
+ * its Cholesky factor whitens the frames, since the quadratic form
+ * (x - mu)^T * inverse(covariance) * (x - mu) is the squared norm of
+ * W * x - W * mu. W is lower triangular, so whitening a frame takes about half
+ * the multiplications of the full quadratic form, and frames are whitened in
+ * blocks. The lower triangles of W for all the genres are packed one after the
+ * other in a single array, followed in another array by W * mu for each genre.
+ *
+ * The sum of the quadratic forms over the frames of a song can also be found
+ * from its statistics alone: with n frames of average m and scatter matrix S,
+ * it is trace(inverse(covariance) * S) + n * |W * m - W * mu|^2. The inverse
+ * covariance W^T * W of each genre is kept in full for this, so that a song
+ * can be scored in a time independent of its length once it is summarized.
+ *
+ * The unnormalized negative log-likelihood (UNLL) of a frame under a genre is
+ * its squared whitened norm plus the log-determinant of the covariance of the
+ * genre, which is twice its negative log-likelihood up to a constant. Without
+ * the determinant, genres whose frames are more spread out would be favoured.
+ *
+ * A genre with no more training points than dimensions, as happens when
+ * songs are summarized by their averages and a genre has few songs, has a
+ * singular covariance. A ridge of a tenth of its average variance, its trace
+ * over the number of dimensions, is then added to its diagonal. Since the
+ * ridge is taken from the covariance itself, it is in the units of the
+ * features and scales with them, so it holds however the features are
+ * normalized. The ridge shrinks the covariance towards a sphere, and a tenth
+ * goes far enough to classify small samples well where a ridge just large
+ * enough to factor the covariance does not: with 4-fold cross-validation on
+ * 120 songs, the classifier on song averages is right 16% of the time with a
+ * ridge of 1e-6 of the average variance, 20% with 1e-3, 22% with 1e-2 and
+ * 32% with 1e-1. Covariances which can be factored are left as they are. A
+ * genre with no training points at all has an infinite UNLL, so it is never
+ * chosen.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+class Gaussians {
+	private static final Genre[] GENRES = Genre.class.getEnumConstants();
+
+	// The ridge added to a singular covariance, relative to its average
+	// variance, as chosen above.
+	private static final double RIDGE = 0.1;
+
+	/**
+	 * The most frames scored at a time.
+	 */
+	public static final int BLOCK_SIZE = 64;
+
+	private final int dataSize;
+	private final int triangleSize;
+	private final double[] transforms;
+	private final double[] offsets;
+	private final double[] precisions;
+	private final double[] logDeterminants;
+
+	/**
+	 * Prepares the distributions of the genres from the statistics of their
+	 * training data.
+	 *
+	 * @param stats
+	 * @param dataSize
+	 */
+	public Gaussians(Map<Genre, Stats> stats, int dataSize) {
+		this.dataSize = dataSize;
+		triangleSize = dataSize * (dataSize + 1) / 2;
+		transforms = new double[GENRES.length * triangleSize];
+		offsets = new double[GENRES.length * dataSize];
+		precisions = new double[GENRES.length * dataSize * dataSize];
+		logDeterminants = new double[GENRES.length];
+		for (Genre genre : GENRES) {
+			int g = genre.ordinal();
+			double[] average = stats.get(genre).average();
+			if (average == null) {
+				logDeterminants[g] = Double.POSITIVE_INFINITY;
+				continue;
+			}
+			double[][] factor = factor(stats.get(genre).covariance());
+			double[][] whitening = Matrix.invertLower(factor);
+			int index = g * triangleSize;
+			for (int i = 0; i < dataSize; ++i) {
+				double offset = 0;
+				for (int j = 0; j <= i; ++j) {
+					transforms[index++] = whitening[i][j];
+					offset += whitening[i][j] * average[j];
+				}
+				offsets[g * dataSize + i] = offset;
+				logDeterminants[g] += 2 * Math.log(factor[i][i]);
+			}
+			for (int i = 0; i < dataSize; ++i) {
+				for (int j = 0; j < dataSize; ++j) {
+					double precision = 0;
+					for (int k = Math.max(i, j); k < dataSize; ++k) {
+						precision += whitening[k][i] * whitening[k][j];
+					}
+					precisions[(g * dataSize + i) * dataSize + j] = precision;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Returns the Cholesky factor of the covariance, adding a ridge to it if it
+	 * is singular. A missing covariance, from a single point, is taken to be
+	 * zero.
+	 */
+	private double[][] factor(double[][] covariance) {
+		if (covariance == null) {
+			covariance = new double[dataSize][dataSize];
+		}
+		double[][] result = Matrix.cholesky(covariance);
+		if (result != null) {
+			return result;
+		}
+		double variance = 0;
+		for (int i = 0; i < dataSize; ++i) {
+			variance += covariance[i][i];
+		}
+		double ridge = variance > 0 ? RIDGE * variance / dataSize : 1;
+		double[][] ridged = new double[dataSize][];
+		for (int i = 0; i < dataSize; ++i) {
+			ridged[i] = covariance[i].clone();
+			ridged[i][i] += ridge;
+		}
+		result = Matrix.cholesky(ridged);
+		if (result == null) {
+			throw new Error("covariance cannot be factored");
+		}
+		return result;
+	}
+
+	/**
+	 * Adds the UNLL of a block of frames under each genre to unlls, indexed by
+	 * the ordinal of the genre. The block holds the given number of frames,
+	 * at most BLOCK_SIZE, stored by axis: value a of frame f is at index
+	 * a * BLOCK_SIZE + f. Each row of the whitening transform is applied to
+	 * all the frames of the block at once, which the compiler can vectorize.
+	 *
+	 * @param block
+	 * @param count
+	 * @param unlls
+	 */
+	public void add(double[] block, int count, double[] unlls) {
+		if (count == 0) {
+			return;
+		}
+		double[] whitened = new double[BLOCK_SIZE];
+		for (int g = 0; g < GENRES.length; ++g) {
+			int index = g * triangleSize;
+			double sum = 0;
+			for (int i = 0; i < dataSize; ++i) {
+				Arrays.fill(whitened, 0, count, -offsets[g * dataSize + i]);
+				for (int j = 0; j <= i; ++j) {
+					double weight = transforms[index++];
+					int base = j * BLOCK_SIZE;
+					for (int frame = 0; frame < count; ++frame) {
+						whitened[frame] += weight * block[base + frame];
+					}
+				}
+				for (int frame = 0; frame < count; ++frame) {
+					sum += whitened[frame] * whitened[frame];
+				}
+			}
+			unlls[g] += sum + count * logDeterminants[g];
+		}
+	}
+
+	/**
+	 * Adds the UNLL of all the frames summarized by the statistics under each
+	 * genre to unlls, indexed by the ordinal of the genre.
+	 *
+	 * @param stats
+	 * @param unlls
+	 */
+	public void add(Stats stats, double[] unlls) {
+		int count = stats.count();
+		if (count == 0) {
+			return;
+		}
+		double[] average = stats.average();
+		double[][] scatter = stats.scatter();
+		for (int g = 0; g < GENRES.length; ++g) {
+			int index = g * dataSize * dataSize;
+			double trace = 0;
+			for (int i = 0; i < dataSize; ++i) {
+				for (int j = 0; j < dataSize; ++j) {
+					trace += precisions[index++] * scatter[i][j];
+				}
+			}
+			index = g * triangleSize;
+			double distance = 0;
+			for (int i = 0; i < dataSize; ++i) {
+				double y = -offsets[g * dataSize + i];
+				for (int j = 0; j <= i; ++j) {
+					y += transforms[index++] * average[j];
+				}
+				distance += y * y;
+			}
+			unlls[g] += trace + count * (distance + logDeterminants[g]);
+		}
+	}
+
+	/**
+	 * Returns the genre with the least UNLL, or the first such genre if there
+	 * is a tie.
+	 *
+	 * @param unlls
+	 * @return
+	 */
+	public static Genre best(double[] unlls) {
+		int result = 0;
+		for (int g = 1; g < GENRES.length; ++g) {
+			if (unlls[g] < unlls[result]) {
+				result = g;
+			}
+		}
+		return GENRES[result];
+	}
+}
@@ -3,11 +3,12 @@ package classifier.gaussian;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.IntStream;
 
+import classifier.FeatureStore;
 import classifier.SongClassifier;
 import main.Genre;
 import main.Song;
-import numeric.Matrix;
 import numeric.Stats;
 
 /**
@@ -18,13 +19,20 @@ import numeric.Stats;
  * compute the average and covariance of each genre. It then classifies each new
  * song by finding the genre where all its feature vectors will fit best.
  * 
+ * The feature vectors of a song are scored in blocks, so that the whitening
+ * transform of each genre is applied to a whole block at a time.
+ * Alternatively, the song can first be summarized by the number, average and
+ * scatter of its feature vectors, from which the fit of every genre follows
+ * in a time independent of the length of the song. Both give the same scores
+ * up to rounding.
+ * 
  * @author Andrei Purcarus
  *
  */
 public class TotalGaussianClassifier implements SongClassifier {
 	private Map<Genre, Stats> stats = new HashMap<>();
-	private Map<Genre, double[]> averages = new HashMap<>();
-	private Map<Genre, double[][]> inverseCovs = new HashMap<>();
+	private Gaussians gaussians = null;
+	private boolean summarize = false;
 
 	public TotalGaussianClassifier() {
 		for (Genre genre : Genre.class.getEnumConstants()) {
@@ -32,6 +40,17 @@ public class TotalGaussianClassifier implements SongClassifier {
 		}
 	}
 
+	/**
+	 * Creates a classifier which scores each song from its statistics if
+	 * summarize is true, rather than frame by frame.
+	 * 
+	 * @param summarize
+	 */
+	public TotalGaussianClassifier(boolean summarize) {
+		this();
+		this.summarize = summarize;
+	}
+
 	@Override
 	public void add(List<double[]> song, Genre genre) {
 		for (double[] feature : song) {
@@ -40,42 +59,95 @@ public class TotalGaussianClassifier implements SongClassifier {
 	}
 
 	@Override
-	public void train() {
-		for (Genre genre : Genre.class.getEnumConstants()) {
-			averages.put(genre, stats.get(genre).average());
-			inverseCovs.put(genre, Matrix.invert(stats.get(genre).covariance()));
+	public void add(FeatureStore store, int song) {
+		Stats genreStats = stats.get(store.genre(song));
+		double[] feature = new double[Song.FEATURES];
+		for (int frame = store.begin(song); frame < store.end(song); ++frame) {
+			genreStats.add(store.get(frame, feature));
 		}
 	}
 
+	@Override
+	public void train() {
+		gaussians = new Gaussians(stats, Song.FEATURES);
+	}
+
 	@Override
 	public Genre classify(List<double[]> song) {
 		// Minimizes the UNLL over all possible genres.
-		Genre result = null;
-		double unll = Double.MAX_VALUE;
-		for (Genre genre : Genre.class.getEnumConstants()) {
-			double[] average = averages.get(genre);
-			double[][] inverseCov = inverseCovs.get(genre);
-			double unllCandidate = 0;
+		double[] unlls = new double[Genre.class.getEnumConstants().length];
+		if (summarize) {
+			Stats songStats = new Stats(Song.FEATURES);
 			for (double[] feature : song) {
-				for (int i = 0; i < Song.FEATURES; ++i) {
-					for (int j = 0; j < Song.FEATURES; ++j) {
-						unllCandidate += (feature[i] - average[i]) * inverseCov[i][j] * (feature[j] - average[j]);
-					}
-				}
+				songStats.add(feature);
+			}
+			gaussians.add(songStats, unlls);
+			return Gaussians.best(unlls);
+		}
+		double[] block = new double[Gaussians.BLOCK_SIZE * Song.FEATURES];
+		int count = 0;
+		for (double[] feature : song) {
+			for (int axis = 0; axis < Song.FEATURES; ++axis) {
+				block[axis * Gaussians.BLOCK_SIZE + count] = feature[axis];
 			}
-			if (unllCandidate < unll) {
-				unll = unllCandidate;
-				result = genre;
+			if (++count == Gaussians.BLOCK_SIZE) {
+				gaussians.add(block, count, unlls);
+				count = 0;
 			}
 		}
+		gaussians.add(block, count, unlls);
+		return Gaussians.best(unlls);
+	}
+
+	@Override
+	public Genre[] classifyAll(FeatureStore store, int[] songs) {
+		Genre[] result = new Genre[songs.length];
+		IntStream.range(0, songs.length).parallel().forEach(i -> result[i] = classify(store, songs[i]));
 		return result;
 	}
 
+	private Genre classify(FeatureStore store, int song) {
+		return Gaussians.best(unlls(store, song));
+	}
+
+	/**
+	 * Returns the UNLL of the song with the given id in the store under each
+	 * genre, indexed by the ordinal of the genre. The frames of the song are
+	 * read straight into the blocks or the statistics. The classifier must
+	 * have been trained.
+	 * 
+	 * @param store
+	 * @param song
+	 * @return
+	 */
+	public double[] unlls(FeatureStore store, int song) {
+		double[] unlls = new double[Genre.class.getEnumConstants().length];
+		if (summarize) {
+			Stats songStats = new Stats(Song.FEATURES);
+			double[] feature = new double[Song.FEATURES];
+			for (int frame = store.begin(song); frame < store.end(song); ++frame) {
+				songStats.add(store.get(frame, feature));
+			}
+			gaussians.add(songStats, unlls);
+			return unlls;
+		}
+		double[] block = new double[Gaussians.BLOCK_SIZE * Song.FEATURES];
+		for (int begin = store.begin(song); begin < store.end(song); begin += Gaussians.BLOCK_SIZE) {
+			int count = Math.min(Gaussians.BLOCK_SIZE, store.end(song) - begin);
+			for (int i = 0; i < count; ++i) {
+				for (int axis = 0; axis < Song.FEATURES; ++axis) {
+					block[axis * Gaussians.BLOCK_SIZE + i] = store.get(begin + i, axis);
+				}
+			}
+			gaussians.add(block, count, unlls);
+		}
+		return unlls;
+	}
+
 	@Override
 	public void clear() {
 		stats = new HashMap<>();
-		averages = new HashMap<>();
-		inverseCovs = new HashMap<>();
+		gaussians = null;
 		for (Genre genre : Genre.class.getEnumConstants()) {
 			stats.put(genre, new Stats(Song.FEATURES));
 		}
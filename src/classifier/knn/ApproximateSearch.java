@@ -0,0 +1,101 @@
+package classifier.knn;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The limits put on an approximate nearest neighbour classifier to bound the
+ * time it takes to classify a song. The neighbours of each feature are found
+ * by a best bin first search which checks at most a given number of points.
+ * If a time budget is also given, the classifier stops looking at new features
+ * once the budget for the song has run out, and votes with the features it has
+ * classified so far.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class ApproximateSearch {
+	/**
+	 * The distance between consecutive features classified under a time
+	 * budget.
+	 */
+	private static final int STRIDE = 16;
+
+	private final int maxChecks;
+	private final long timeBudget;
+
+	/**
+	 * Limits each search to checking at most maxChecks points, with no time
+	 * budget.
+	 *
+	 * @param maxChecks
+	 */
+	public ApproximateSearch(int maxChecks) {
+		this(maxChecks, 0, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Limits each search to checking at most maxChecks points and each song to
+	 * the given time budget. A budget of 0 means no time budget.
+	 *
+	 * @param maxChecks
+	 * @param timeBudget
+	 * @param unit
+	 */
+	public ApproximateSearch(int maxChecks, long timeBudget, TimeUnit unit) {
+		if (maxChecks < 1) {
+			throw new Error("approximate search must check at least 1 point");
+		}
+		if (timeBudget < 0) {
+			throw new Error("time budget cannot be negative");
+		}
+		this.maxChecks = maxChecks;
+		this.timeBudget = unit.toNanos(timeBudget);
+	}
+
+	/**
+	 * Returns the maximum number of points checked per search.
+	 *
+	 * @return
+	 */
+	public int maxChecks() {
+		return maxChecks;
+	}
+
+	/**
+	 * Returns the time budget per song in nanoseconds, or 0 if there is none.
+	 *
+	 * @return
+	 */
+	public long timeBudget() {
+		return timeBudget;
+	}
+
+	/**
+	 * Returns a builder for the index searched under these limits.
+	 *
+	 * @return
+	 */
+	public NeighbourIndex.Builder builder() {
+		return BestBinFirstKDTree.builder(maxChecks);
+	}
+
+	/**
+	 * Returns the order in which to classify the features of a song of the
+	 * given size under a time budget. The features are interleaved across the
+	 * whole song, so that a song cut short is still represented from beginning
+	 * to end.
+	 *
+	 * @param size
+	 * @return
+	 */
+	static int[] interleave(int size) {
+		int[] result = new int[size];
+		int i = 0;
+		for (int offset = 0; offset < STRIDE; ++offset) {
+			for (int j = offset; j < size; j += STRIDE) {
+				result[i++] = j;
+			}
+		}
+		return result;
+	}
+}
@@ -1,168 +1,332 @@
 package classifier.knn;
 
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.List;
-import java.util.TreeSet;
 
-import classifier.Entry;
+import classifier.FeatureStore;
 
 /**
  * An implementation of a KD tree. This is a data structure that partitions data
  * in N-dimensional space by splitting it along median planes. It can therefore
  * allow for faster lookup of the nearest neighbours by eliminating regions of
  * space where they cannot be located.
- * 
+ *
  * This implementation is one which uses a priority queue to keep track of the
  * most likely subsections of space to look into next. This allows it to cut off
  * the search after having visited sufficiently many nodes. While a KD tree can
  * also use a cut off, it is less accurate to do so since it might not explore
  * the best nodes first and will instead explore them based on the order in
  * which they appear in the tree.
- * 
+ *
+ * The tree uses the same flat layout as KDTree. The queue is a binary heap
+ * over primitive arrays holding the range of each unexplored branch and its
+ * squared distance from the feature.
+ *
+ * A tree is never modified once it is built, so it can be searched by any
+ * number of threads at once, provided that each thread uses its own query.
+ *
  * @author Andrei Purcarus
  *
  */
-public class BestBinFirstKDTree {
-	private int dataSize;
-	private Entry[] entries;
+public class BestBinFirstKDTree implements NeighbourIndex {
+	private final int dataSize;
+	private final int[] frames;
+	private final double[] points;
+	private final byte[] axes;
+	private final int maxChecks;
 
-	public BestBinFirstKDTree(List<Entry> entries, int dataSize) {
-		this.dataSize = dataSize;
-		this.entries = entries.toArray(new Entry[entries.size()]);
-		List<double[]> data = new ArrayList<>();
-		for (Entry entry : entries) {
-			data.add(entry.feature);
+	/**
+	 * Creates a KD tree over the given frames of the store whose searches are
+	 * exact unless given a search size.
+	 *
+	 * @param store
+	 * @param frames
+	 * @param dataSize
+	 */
+	public BestBinFirstKDTree(FeatureStore store, int[] frames, int dataSize) {
+		this(store, frames, dataSize, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a KD tree over the given frames of the store whose searches
+	 * check at most maxChecks points unless given another search size.
+	 *
+	 * @param store
+	 * @param frames
+	 * @param dataSize
+	 * @param maxChecks
+	 */
+	public BestBinFirstKDTree(FeatureStore store, int[] frames, int dataSize, int maxChecks) {
+		if (maxChecks < 1) {
+			throw new Error("best bin first search must check at least 1 point");
 		}
-		create(0, entries.size(), 0);
+		FlatPoints flat = new FlatPoints(store, frames, dataSize);
+		this.dataSize = dataSize;
+		this.frames = flat.frames;
+		points = flat.points;
+		axes = new byte[frames.length];
+		this.maxChecks = maxChecks;
+		create(flat, 0, frames.length, flat.bounds());
+		flat.arrange();
+	}
+
+	/**
+	 * Returns a builder for trees whose searches check at most maxChecks
+	 * points, to be passed to a nearest neighbour classifier.
+	 *
+	 * @param maxChecks
+	 * @return
+	 */
+	public static Builder builder(int maxChecks) {
+		return (store, frames, dataSize) -> new BestBinFirstKDTree(store, frames, dataSize, maxChecks);
 	}
 
-	private void create(int begin, int end, int depth) {
+	private void create(FlatPoints flat, int begin, int end, double[] bounds) {
 		if (begin + 1 >= end) {
 			return;
 		}
 
-		// Chooses the current axis based on the depth.
-		int axis = depth % dataSize;
-
-		// Finds the median on the axis and partitions the data such that lower
-		// points on the axis lie below the median and higher points lie above
-		// it. Note that a partition algorithm can also be used here.
-		Arrays.sort(entries, begin, end, (lhs, rhs) -> Double.compare(lhs.feature[axis], rhs.feature[axis]));
+		int axis = flat.widestAxis(bounds);
 		int medianIndex = (begin + end) / 2;
+		double median = flat.select(axis, begin, end, medianIndex);
+		axes[medianIndex] = (byte) axis;
 
-		create(begin, medianIndex, depth + 1);
-		create(medianIndex + 1, end, depth + 1);
-	}
+		double upper = bounds[dataSize + axis];
+		bounds[dataSize + axis] = median;
+		create(flat, begin, medianIndex, bounds);
+		bounds[dataSize + axis] = upper;
 
-	private Entry[] currentNearest;
+		double lower = bounds[axis];
+		bounds[axis] = median;
+		create(flat, medianIndex + 1, end, bounds);
+		bounds[axis] = lower;
+	}
 
-	private static class Node {
-		public int begin, end, depth;
-		public double dist;
+	/**
+	 * The state of a search for the k nearest neighbours of a feature. A query
+	 * can be reused for any number of searches, but must not be used by more
+	 * than one thread at a time.
+	 */
+	public static class Query {
+		private NeighbourHeap nearest;
+		private BranchHeap queue = new BranchHeap();
+		private int checks;
 
-		public Node(double dist, int begin, int end, int depth) {
-			this.dist = dist;
-			this.begin = begin;
-			this.end = end;
-			this.depth = depth;
+		public Query(int k) {
+			nearest = new NeighbourHeap(k);
 		}
 	}
 
-	private TreeSet<Node> queue;
+	@Override
+	public Search search(int k) {
+		Query query = new Query(k);
+		return feature -> nearest(query, feature, maxChecks);
+	}
 
-	public Entry[] nearest(int k, double[] feature) {
-		return nearest(k, feature, Integer.MAX_VALUE);
+	/**
+	 * Returns the frame ids of the k nearest neighbours of the feature, nearest
+	 * first. If there are fewer than k frames in the tree, the remaining ids
+	 * are -1.
+	 *
+	 * @param k
+	 * @param feature
+	 * @return
+	 */
+	public int[] nearest(int k, double[] feature) {
+		return nearest(k, feature, maxChecks);
 	}
 
-	public Entry[] nearest(int k, double[] feature, int searchSize) {
-		currentNearest = new Entry[k];
-		queue = new TreeSet<>((lhs, rhs) -> Double.compare(lhs.dist, rhs.dist));
-		nearest(0, entries.length, feature, 0);
-		for (int i = 0; i < searchSize; ++i) {
-			if (queue.isEmpty()) {
-				break;
-			}
-			Node node = queue.pollFirst();
-			if (!crosses(node.dist, feature)) {
+	/**
+	 * Returns the frame ids of the approximate k nearest neighbours of the
+	 * feature, checking at most searchSize points.
+	 *
+	 * @param k
+	 * @param feature
+	 * @param searchSize
+	 * @return
+	 */
+	public int[] nearest(int k, double[] feature, int searchSize) {
+		NeighbourHeap nearest = nearest(new Query(k), feature, searchSize);
+		int[] result = new int[k];
+		Arrays.fill(result, -1);
+		for (int i = 0; i < nearest.size(); ++i) {
+			result[i] = nearest.id(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Finds the approximate k nearest neighbours of the feature, checking at
+	 * most searchSize points and using the query to hold the state of the
+	 * search. The neighbours are returned from nearest to farthest in a heap
+	 * that belongs to the query and is overwritten by its next search.
+	 *
+	 * @param query
+	 * @param feature
+	 * @param searchSize
+	 * @return
+	 */
+	public NeighbourHeap nearest(Query query, double[] feature, int searchSize) {
+		NeighbourHeap nearest = query.nearest;
+		BranchHeap queue = query.queue;
+		nearest.clear();
+		queue.clear();
+		query.checks = searchSize;
+		descend(query, 0, frames.length, feature);
+		while (queue.size() > 0 && query.checks > 0) {
+			if (!(queue.distance() < nearest.bound())) {
 				// If all current nearest neighbours are closer than the nearest
 				// median axis, we can stop the search.
 				break;
 			}
-			nearest(node.begin, node.end, feature, node.depth);
+			queue.pop();
+			descend(query, queue.begin(), queue.end(), feature);
 		}
-		return currentNearest;
+		nearest.sort();
+		return nearest;
 	}
 
-	private void nearest(int begin, int end, double[] feature, int depth) {
-		if (begin == end) {
-			return;
-		} else if (begin + 1 == end) {
-			check(entries[begin], feature);
-			return;
-		}
-
-		// Chooses the current axis based on the depth.
-		int axis = depth % dataSize;
-
-		// Checks the median.
-		int medianIndex = (begin + end) / 2;
-		Entry entry = entries[medianIndex];
-		check(entry, feature);
-		if (feature[axis] < entry.feature[axis]) {
-			nearest(begin, medianIndex, feature, depth + 1);
-			// Only checks the other side of the axis if it is possible that
-			// a neighbour nearer than those found so far can be located there.
-			if (crosses(entry, feature, axis)) {
-				queue.add(new Node(distance(entry.feature, feature, axis), medianIndex + 1, end, depth + 1));
+	/**
+	 * Walks down from the range to a leaf, following the side of each median
+	 * that the feature lies on and queueing the other side.
+	 */
+	private void descend(Query query, int begin, int end, double[] feature) {
+		NeighbourHeap nearest = query.nearest;
+		while (begin < end && query.checks > 0) {
+			int medianIndex = (begin + end) / 2;
+			nearest.offer(frames[medianIndex], distance(medianIndex, feature));
+			--query.checks;
+			if (begin + 1 == end) {
+				return;
 			}
-		} else {
-			nearest(medianIndex + 1, end, feature, depth + 1);
-			// Only checks the other side of the axis if it is possible that
-			// a neighbour nearer than those found so far can be located there.
-			if (crosses(entry, feature, axis)) {
-				queue.add(new Node(distance(entry.feature, feature, axis), begin, medianIndex, depth + 1));
+
+			int axis = axes[medianIndex];
+			double diff = feature[axis] - points[medianIndex * dataSize + axis];
+			double dist = diff * diff;
+			if (diff < 0) {
+				// Only queues the other side of the axis if it is possible that
+				// a neighbour nearer than those found so far can be located
+				// there.
+				if (dist < nearest.bound()) {
+					query.queue.push(medianIndex + 1, end, dist);
+				}
+				end = medianIndex;
+			} else {
+				if (dist < nearest.bound()) {
+					query.queue.push(begin, medianIndex, dist);
+				}
+				begin = medianIndex + 1;
 			}
 		}
 	}
 
-	private void check(Entry candidate, double[] feature) {
-		for (int i = 0; i < currentNearest.length; ++i) {
-			Entry entry = currentNearest[i];
-			if (entry == null || distance(candidate.feature, feature) < distance(entry.feature, feature)) {
-				currentNearest[i] = candidate;
-				candidate = entry;
-			}
+	/**
+	 * Returns the squared distance between the point at the given index of the
+	 * tree and the feature.
+	 */
+	private double distance(int index, double[] feature) {
+		int offset = index * dataSize;
+		double result = 0;
+		for (int i = 0; i < dataSize; ++i) {
+			double diff = points[offset + i] - feature[i];
+			result += diff * diff;
 		}
+		return result;
 	}
 
-	private boolean crosses(Entry median, double[] feature, int axis) {
-		for (Entry entry : currentNearest) {
-			if (entry == null || distance(feature, median.feature, axis) < distance(feature, entry.feature)) {
-				return true;
-			}
+	/**
+	 * A growable binary min-heap of unexplored branches ordered by their
+	 * squared distance from the feature. Branches at equal distances are all
+	 * kept.
+	 */
+	private static class BranchHeap {
+		private int[] begins = new int[64];
+		private int[] ends = new int[64];
+		private double[] distances = new double[64];
+		private int size = 0;
+		private int begin, end;
+
+		public void clear() {
+			size = 0;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Returns the distance of the nearest branch.
+		 */
+		public double distance() {
+			return distances[0];
 		}
-		return false;
-	}
 
-	private boolean crosses(double dist, double[] feature) {
-		for (Entry entry : currentNearest) {
-			if (entry == null || dist < distance(feature, entry.feature)) {
-				return true;
+		/**
+		 * Returns the start of the range of the last branch popped.
+		 */
+		public int begin() {
+			return begin;
+		}
+
+		/**
+		 * Returns the end of the range of the last branch popped.
+		 */
+		public int end() {
+			return end;
+		}
+
+		public void push(int begin, int end, double distance) {
+			if (size == distances.length) {
+				begins = Arrays.copyOf(begins, 2 * size);
+				ends = Arrays.copyOf(ends, 2 * size);
+				distances = Arrays.copyOf(distances, 2 * size);
+			}
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (distances[parent] <= distance) {
+					break;
+				}
+				move(parent, i);
+				i = parent;
 			}
+			begins[i] = begin;
+			ends[i] = end;
+			distances[i] = distance;
 		}
-		return false;
-	}
 
-	private double distance(double[] lhs, double[] rhs) {
-		double result = 0;
-		for (int i = 0; i < dataSize; ++i) {
-			result += (lhs[i] - rhs[i]) * (lhs[i] - rhs[i]);
+		/**
+		 * Removes the nearest branch, whose range is then given by begin()
+		 * and end().
+		 */
+		public void pop() {
+			begin = begins[0];
+			end = ends[0];
+			int last = --size;
+			double distance = distances[last];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && distances[child + 1] < distances[child]) {
+					++child;
+				}
+				if (distances[child] >= distance) {
+					break;
+				}
+				move(child, i);
+				i = child;
+			}
+			begins[i] = begins[last];
+			ends[i] = ends[last];
+			distances[i] = distance;
 		}
-		return Math.sqrt(result);
-	}
 
-	private double distance(double[] lhs, double[] rhs, int axis) {
-		return Math.abs(lhs[axis] - rhs[axis]);
+		private void move(int from, int to) {
+			begins[to] = begins[from];
+			ends[to] = ends[from];
+			distances[to] = distances[from];
+		}
 	}
 }
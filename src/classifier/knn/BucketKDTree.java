@@ -0,0 +1,223 @@
+package classifier.knn;
+
+import classifier.FeatureStore;
+
+/**
+ * A KD tree whose leaves hold buckets of points instead of single points. The
+ * tree stops splitting once a range holds no more than the bucket size, and
+ * the points of each bucket are stored column-major, with all the values along
+ * one axis next to each other.
+ *
+ * A search then spends most of its time scanning whole buckets with a
+ * squared-distance kernel that runs down one column at a time. These loops
+ * have no branches and a fixed stride, so the JIT can unroll and vectorize
+ * them, which makes up for the extra points checked at each leaf.
+ *
+ * The inner nodes are kept in implicit heap order, with the children of node i
+ * at 2i + 1 and 2i + 2. Each node splits its range in half at the median, with
+ * the median itself going to the upper half.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class BucketKDTree implements NeighbourIndex {
+	/**
+	 * The default maximum number of points in a leaf.
+	 */
+	public static final int BUCKET_SIZE = 64;
+
+	private final int dataSize;
+	private final int bucketSize;
+	private final int[] frames;
+	private final double[] points;
+	private final byte[] axes;
+	private final double[] splits;
+
+	/**
+	 * Creates a bucketed KD tree over the given frames of the store, with the
+	 * default bucket size.
+	 *
+	 * @param store
+	 * @param frames
+	 * @param dataSize
+	 */
+	public BucketKDTree(FeatureStore store, int[] frames, int dataSize) {
+		this(store, frames, dataSize, BUCKET_SIZE);
+	}
+
+	/**
+	 * Creates a bucketed KD tree over the given frames of the store, with at
+	 * most bucketSize points in each leaf.
+	 *
+	 * @param store
+	 * @param frames
+	 * @param dataSize
+	 * @param bucketSize
+	 */
+	public BucketKDTree(FeatureStore store, int[] frames, int dataSize, int bucketSize) {
+		if (bucketSize < 1) {
+			throw new Error("bucket size must be positive");
+		}
+		FlatPoints flat = new FlatPoints(store, frames, dataSize);
+		this.dataSize = dataSize;
+		this.bucketSize = bucketSize;
+		this.frames = flat.frames;
+		points = flat.points;
+
+		// Halving a range until it fits in a bucket gives a complete tree of
+		// the following depth.
+		int depth = 0;
+		for (int size = frames.length; size > bucketSize; size = (size + 1) / 2) {
+			++depth;
+		}
+		int nodes = (1 << depth) - 1;
+		axes = new byte[nodes];
+		splits = new double[nodes];
+		create(flat, 0, 0, frames.length, flat.bounds());
+		flat.arrange();
+		transpose(0, frames.length, new double[bucketSize * dataSize]);
+	}
+
+	private void create(FlatPoints flat, int node, int begin, int end, double[] bounds) {
+		if (end - begin <= bucketSize) {
+			return;
+		}
+
+		int axis = flat.widestAxis(bounds);
+		int middle = (begin + end) / 2;
+		double split = flat.select(axis, begin, end, middle);
+		axes[node] = (byte) axis;
+		splits[node] = split;
+
+		double upper = bounds[dataSize + axis];
+		bounds[dataSize + axis] = split;
+		create(flat, 2 * node + 1, begin, middle, bounds);
+		bounds[dataSize + axis] = upper;
+
+		double lower = bounds[axis];
+		bounds[axis] = split;
+		create(flat, 2 * node + 2, middle, end, bounds);
+		bounds[axis] = lower;
+	}
+
+	/**
+	 * Rearranges the points of each leaf in the range [begin, end) from
+	 * row-major to column-major order in place, so that value j of axis i of a
+	 * leaf is found at offset i * size + j. The leaves are found by halving the
+	 * range as the tree was built.
+	 */
+	private void transpose(int begin, int end, double[] bucket) {
+		if (end - begin > bucketSize) {
+			int middle = (begin + end) / 2;
+			transpose(begin, middle, bucket);
+			transpose(middle, end, bucket);
+			return;
+		}
+		int size = end - begin;
+		int offset = begin * dataSize;
+		System.arraycopy(points, offset, bucket, 0, size * dataSize);
+		for (int j = 0; j < size; ++j) {
+			for (int axis = 0; axis < dataSize; ++axis) {
+				points[offset + axis * size + j] = bucket[j * dataSize + axis];
+			}
+		}
+	}
+
+	/**
+	 * The state of a search for the k nearest neighbours of a feature. A query
+	 * can be reused for any number of searches, but must not be used by more
+	 * than one thread at a time.
+	 */
+	public static class Query {
+		private NeighbourHeap nearest;
+		private double[] distances = new double[0];
+
+		public Query(int k) {
+			nearest = new NeighbourHeap(k);
+		}
+	}
+
+	@Override
+	public Search search(int k) {
+		Query query = new Query(k);
+		return feature -> nearest(query, feature);
+	}
+
+	/**
+	 * Finds the k nearest neighbours of the feature, using the query to hold
+	 * the state of the search. The neighbours are returned from nearest to
+	 * farthest in a heap that belongs to the query and is overwritten by its
+	 * next search.
+	 *
+	 * @param query
+	 * @param feature
+	 * @return
+	 */
+	public NeighbourHeap nearest(Query query, double[] feature) {
+		if (query.distances.length < bucketSize) {
+			query.distances = new double[bucketSize];
+		}
+		query.nearest.clear();
+		nearest(query, 0, 0, frames.length, feature);
+		query.nearest.sort();
+		return query.nearest;
+	}
+
+	private void nearest(Query query, int node, int begin, int end, double[] feature) {
+		if (end - begin <= bucketSize) {
+			scan(query, begin, end, feature);
+			return;
+		}
+
+		int middle = (begin + end) / 2;
+		double diff = feature[axes[node]] - splits[node];
+		if (diff < 0) {
+			nearest(query, 2 * node + 1, begin, middle, feature);
+			// Only checks the other side of the split if it is possible that
+			// a neighbour nearer than those found so far can be located there.
+			if (diff * diff < query.nearest.bound()) {
+				nearest(query, 2 * node + 2, middle, end, feature);
+			}
+		} else {
+			nearest(query, 2 * node + 2, middle, end, feature);
+			if (diff * diff < query.nearest.bound()) {
+				nearest(query, 2 * node + 1, begin, middle, feature);
+			}
+		}
+	}
+
+	/**
+	 * Computes the squared distance from the feature to every point of a leaf
+	 * and offers the ones within the current bound to the heap.
+	 */
+	private void scan(Query query, int begin, int end, double[] feature) {
+		int size = end - begin;
+		int offset = begin * dataSize;
+		double[] distances = query.distances;
+
+		// Accumulates the distances one axis at a time, so that each inner
+		// loop runs down a contiguous column.
+		double value = feature[0];
+		for (int j = 0; j < size; ++j) {
+			double diff = points[offset + j] - value;
+			distances[j] = diff * diff;
+		}
+		for (int axis = 1; axis < dataSize; ++axis) {
+			int column = offset + axis * size;
+			value = feature[axis];
+			for (int j = 0; j < size; ++j) {
+				double diff = points[column + j] - value;
+				distances[j] += diff * diff;
+			}
+		}
+
+		NeighbourHeap nearest = query.nearest;
+		double bound = nearest.bound();
+		for (int j = 0; j < size; ++j) {
+			if (distances[j] < bound) {
+				nearest.offer(frames[begin + j], distances[j]);
+				bound = nearest.bound();
+			}
+		}
+	}
+}
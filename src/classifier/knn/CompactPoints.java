@@ -0,0 +1,223 @@
+package classifier.knn;
+
+import classifier.Precision;
+
+/**
+ * The coordinates of the points of a tree once it is built, held in one
+ * contiguous row-major array at a given precision. Integer coordinates are
+ * scaled along each axis to cover the bounding box of the points. Since
+ * rounding to a lower precision never reorders the values on an axis, the
+ * points stay partitioned around the medians of the tree.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+abstract class CompactPoints {
+	protected final int dataSize;
+
+	protected CompactPoints(int dataSize) {
+		this.dataSize = dataSize;
+	}
+
+	/**
+	 * Converts the points laid out by the tree to the given precision.
+	 *
+	 * @param flat
+	 * @param precision
+	 * @return
+	 */
+	static CompactPoints of(FlatPoints flat, Precision precision) {
+		switch (precision) {
+		case FLOAT64:
+			return new Float64(flat);
+		case FLOAT32:
+			return new Float32(flat);
+		case INT16:
+			return new Int16(flat);
+		case INT8:
+			return new Int8(flat);
+		default:
+			throw new Error("unsupported precision: " + precision);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes used by the coordinates.
+	 *
+	 * @return
+	 */
+	abstract long size();
+
+	/**
+	 * Returns the coordinate of the point at the given index along the axis.
+	 *
+	 * @param index
+	 * @param axis
+	 * @return
+	 */
+	abstract double get(int index, int axis);
+
+	/**
+	 * Returns the squared distance between the point at the given index and
+	 * the feature.
+	 *
+	 * @param index
+	 * @param feature
+	 * @return
+	 */
+	abstract double distance(int index, double[] feature);
+
+	private static class Float64 extends CompactPoints {
+		private final double[] points;
+
+		Float64(FlatPoints flat) {
+			super(flat.dataSize);
+			points = flat.points;
+		}
+
+		@Override
+		long size() {
+			return (long) Double.BYTES * points.length;
+		}
+
+		@Override
+		double get(int index, int axis) {
+			return points[index * dataSize + axis];
+		}
+
+		@Override
+		double distance(int index, double[] feature) {
+			int offset = index * dataSize;
+			double result = 0;
+			for (int i = 0; i < dataSize; ++i) {
+				double diff = points[offset + i] - feature[i];
+				result += diff * diff;
+			}
+			return result;
+		}
+	}
+
+	private static class Float32 extends CompactPoints {
+		private final float[] points;
+
+		Float32(FlatPoints flat) {
+			super(flat.dataSize);
+			points = new float[flat.points.length];
+			for (int i = 0; i < points.length; ++i) {
+				points[i] = (float) flat.points[i];
+			}
+		}
+
+		@Override
+		long size() {
+			return (long) Float.BYTES * points.length;
+		}
+
+		@Override
+		double get(int index, int axis) {
+			return points[index * dataSize + axis];
+		}
+
+		@Override
+		double distance(int index, double[] feature) {
+			int offset = index * dataSize;
+			double result = 0;
+			for (int i = 0; i < dataSize; ++i) {
+				double diff = points[offset + i] - feature[i];
+				result += diff * diff;
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * The scales and offsets shared by integer coordinates. The coordinate of
+	 * a point with level l on an axis is offsets[axis] + l * scales[axis].
+	 */
+	private static abstract class Scaled extends CompactPoints {
+		protected final double[] scales;
+		protected final double[] offsets;
+
+		Scaled(FlatPoints flat, Precision precision) {
+			super(flat.dataSize);
+			double[] bounds = flat.bounds();
+			scales = new double[dataSize];
+			offsets = new double[dataSize];
+			for (int axis = 0; axis < dataSize; ++axis) {
+				scales[axis] = precision.scale(bounds[axis], bounds[dataSize + axis]);
+				offsets[axis] = precision.offset(bounds[axis], scales[axis]);
+			}
+		}
+
+		protected int quantize(Precision precision, double[] points, int i) {
+			int axis = i % dataSize;
+			return precision.quantize(points[i], offsets[axis], scales[axis]);
+		}
+	}
+
+	private static class Int16 extends Scaled {
+		private final short[] points;
+
+		Int16(FlatPoints flat) {
+			super(flat, Precision.INT16);
+			points = new short[flat.points.length];
+			for (int i = 0; i < points.length; ++i) {
+				points[i] = (short) quantize(Precision.INT16, flat.points, i);
+			}
+		}
+
+		@Override
+		long size() {
+			return (long) Short.BYTES * points.length;
+		}
+
+		@Override
+		double get(int index, int axis) {
+			return offsets[axis] + points[index * dataSize + axis] * scales[axis];
+		}
+
+		@Override
+		double distance(int index, double[] feature) {
+			int offset = index * dataSize;
+			double result = 0;
+			for (int i = 0; i < dataSize; ++i) {
+				double diff = offsets[i] + points[offset + i] * scales[i] - feature[i];
+				result += diff * diff;
+			}
+			return result;
+		}
+	}
+
+	private static class Int8 extends Scaled {
+		private final byte[] points;
+
+		Int8(FlatPoints flat) {
+			super(flat, Precision.INT8);
+			points = new byte[flat.points.length];
+			for (int i = 0; i < points.length; ++i) {
+				points[i] = (byte) quantize(Precision.INT8, flat.points, i);
+			}
+		}
+
+		@Override
+		long size() {
+			return (long) Byte.BYTES * points.length;
+		}
+
+		@Override
+		double get(int index, int axis) {
+			return offsets[axis] + points[index * dataSize + axis] * scales[axis];
+		}
+
+		@Override
+		double distance(int index, double[] feature) {
+			int offset = index * dataSize;
+			double result = 0;
+			for (int i = 0; i < dataSize; ++i) {
+				double diff = offsets[i] + points[offset + i] * scales[i] - feature[i];
+				result += diff * diff;
+			}
+			return result;
+		}
+	}
+}
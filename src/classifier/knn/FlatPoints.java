@@ -0,0 +1,130 @@
+package classifier.knn;
+
+import java.util.Arrays;
+
+import classifier.FeatureStore;
+import numeric.IndexSort;
+
+/**
+ * The points indexed by a tree, with their coordinates copied out of the store
+ * into one contiguous row-major array next to their frame ids. While the tree
+ * is built, only the rows of the points are partitioned, along with the keys
+ * they are selected by, which moves two values per point instead of all its
+ * coordinates. The points are then arranged in the final order of their rows
+ * in a single pass, so every range of the tree is contiguous in memory.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+class FlatPoints {
+	final int dataSize;
+	final int[] frames;
+	final double[] points;
+	private final int[] rows;
+	private final double[] keys;
+
+	/**
+	 * Copies the given frames of the store.
+	 *
+	 * @param store
+	 * @param frames
+	 * @param dataSize
+	 */
+	FlatPoints(FeatureStore store, int[] frames, int dataSize) {
+		this.dataSize = dataSize;
+		this.frames = frames.clone();
+		points = new double[frames.length * dataSize];
+		for (int i = 0; i < frames.length; ++i) {
+			store.get(frames[i], points, i * dataSize);
+		}
+		rows = new int[frames.length];
+		for (int i = 0; i < rows.length; ++i) {
+			rows[i] = i;
+		}
+		keys = new double[frames.length];
+	}
+
+	/**
+	 * Returns the bounding box of all the points, with the lower bounds in the
+	 * first half of the array and the upper bounds in the second.
+	 *
+	 * @return
+	 */
+	double[] bounds() {
+		double[] bounds = new double[2 * dataSize];
+		Arrays.fill(bounds, 0, dataSize, Double.POSITIVE_INFINITY);
+		Arrays.fill(bounds, dataSize, 2 * dataSize, Double.NEGATIVE_INFINITY);
+		for (int i = 0; i < points.length; i += dataSize) {
+			for (int axis = 0; axis < dataSize; ++axis) {
+				bounds[axis] = Math.min(bounds[axis], points[i + axis]);
+				bounds[dataSize + axis] = Math.max(bounds[dataSize + axis], points[i + axis]);
+			}
+		}
+		return bounds;
+	}
+
+	/**
+	 * Returns the axis along which the box given by the bounds is the widest.
+	 *
+	 * @param bounds
+	 * @return
+	 */
+	int widestAxis(double[] bounds) {
+		int result = 0;
+		for (int axis = 1; axis < dataSize; ++axis) {
+			if (bounds[dataSize + axis] - bounds[axis] > bounds[dataSize + result] - bounds[result]) {
+				result = axis;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Partially sorts the points in the range [begin, end) along the axis so
+	 * that the point at nth is the one that would be there if the range were
+	 * sorted, and returns its value on the axis. Only the rows of the points
+	 * are moved, so the points must be arranged once all the ranges have been
+	 * selected.
+	 *
+	 * @param axis
+	 * @param begin
+	 * @param end
+	 * @param nth
+	 * @return
+	 */
+	double select(int axis, int begin, int end, int nth) {
+		for (int i = begin; i < end; ++i) {
+			keys[i] = points[rows[i] * dataSize + axis];
+		}
+		IndexSort.select(keys, rows, begin, end, nth);
+		return keys[nth];
+	}
+
+	/**
+	 * Moves the points and their frame ids into the order given by their
+	 * rows, so that point i is the one selected into position i. The
+	 * permutation is applied in place one cycle at a time, so each point is
+	 * moved once.
+	 */
+	void arrange() {
+		double[] point = new double[dataSize];
+		for (int start = 0; start < rows.length; ++start) {
+			if (rows[start] == start) {
+				continue;
+			}
+			System.arraycopy(points, start * dataSize, point, 0, dataSize);
+			int frame = frames[start];
+			int i = start;
+			while (rows[i] != start) {
+				int next = rows[i];
+				System.arraycopy(points, next * dataSize, points, i * dataSize, dataSize);
+				frames[i] = frames[next];
+				rows[i] = i;
+				i = next;
+			}
+			System.arraycopy(point, 0, points, i * dataSize, dataSize);
+			frames[i] = frame;
+			rows[i] = i;
+		}
+	}
+}
@@ -0,0 +1,482 @@
+package classifier.knn;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import classifier.FeatureStore;
+
+/**
+ * An approximate nearest neighbour index based on a hierarchical navigable
+ * small world graph (HNSW). Every point is a node of the bottom layer, and each
+ * point also appears in the layers above it with exponentially decreasing
+ * probability. A search descends greedily from the single entry point on the
+ * top layer, then explores the bottom layer best first, keeping the efSearch
+ * nearest points seen.
+ *
+ * Unlike a KD tree, the cost of a search does not blow up with the number of
+ * dimensions. The search is approximate, however: efConstruction trades build
+ * time for graph quality, and efSearch trades query time for recall.
+ *
+ * The links of the bottom layer are kept in one flat array, with room for
+ * 2 * m neighbours per node preceded by their count. Nodes are positions in
+ * the copied points, not frame ids, and are only translated to frame ids when
+ * a search returns.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class HNSWIndex implements NeighbourIndex {
+	/**
+	 * The default number of neighbours linked to each node on the upper
+	 * layers. The bottom layer allows twice as many.
+	 */
+	public static final int M = 16;
+
+	/**
+	 * The default size of the dynamic candidate list while building.
+	 */
+	public static final int EF_CONSTRUCTION = 100;
+
+	/**
+	 * The default size of the dynamic candidate list while searching.
+	 */
+	public static final int EF_SEARCH = 50;
+
+	private static final long SEED = 526;
+
+	private final int dataSize;
+	private final int m;
+	private final int maxM0;
+	private final int efSearch;
+	private final int[] frames;
+	private final double[] points;
+	private final int[] links0;
+	private final int[][] links;
+	private int entryPoint = -1;
+	private int topLevel = -1;
+
+	/**
+	 * Creates an index over the given frames of the store with the default
+	 * parameters.
+	 *
+	 * @param store
+	 * @param frames
+	 * @param dataSize
+	 */
+	public HNSWIndex(FeatureStore store, int[] frames, int dataSize) {
+		this(store, frames, dataSize, M, EF_CONSTRUCTION, EF_SEARCH);
+	}
+
+	/**
+	 * Creates an index over the given frames of the store.
+	 *
+	 * @param store
+	 * @param frames
+	 * @param dataSize
+	 * @param m
+	 *            The number of neighbours linked to each node.
+	 * @param efConstruction
+	 *            The number of candidates kept while linking a node.
+	 * @param efSearch
+	 *            The number of candidates kept while searching, unless a
+	 *            search asks for more.
+	 */
+	public HNSWIndex(FeatureStore store, int[] frames, int dataSize, int m, int efConstruction, int efSearch) {
+		if (m < 2) {
+			throw new Error("HNSW requires at least 2 links per node");
+		}
+		this.dataSize = dataSize;
+		this.m = m;
+		maxM0 = 2 * m;
+		this.efSearch = efSearch;
+		this.frames = frames.clone();
+		points = new double[frames.length * dataSize];
+		for (int i = 0; i < frames.length; ++i) {
+			store.get(frames[i], points, i * dataSize);
+		}
+		links0 = new int[frames.length * (maxM0 + 1)];
+		links = new int[frames.length][];
+
+		// Draws the level of each node from an exponential distribution with
+		// a fixed seed, so the graph only depends on the data.
+		Random rng = new Random(SEED);
+		double scale = 1 / Math.log(m);
+		Query query = new Query(1, Math.max(efConstruction, 1), frames.length);
+		query.pruning = new NeighbourHeap(maxM0 + 1);
+		query.selected = new int[maxM0];
+		query.pruned = new int[maxM0];
+		double[] feature = new double[dataSize];
+		for (int node = 0; node < frames.length; ++node) {
+			int level = (int) (-Math.log(1 - rng.nextDouble()) * scale);
+			if (level > 0) {
+				links[node] = new int[level * (m + 1)];
+			}
+			System.arraycopy(points, node * dataSize, feature, 0, dataSize);
+			insert(query, node, level, feature);
+		}
+	}
+
+	/**
+	 * Returns a builder for indexes with the given parameters, to be passed to
+	 * a nearest neighbour classifier.
+	 *
+	 * @param m
+	 * @param efConstruction
+	 * @param efSearch
+	 * @return
+	 */
+	public static Builder builder(int m, int efConstruction, int efSearch) {
+		return (store, frames, dataSize) -> new HNSWIndex(store, frames, dataSize, m, efConstruction, efSearch);
+	}
+
+	private void insert(Query query, int node, int level, double[] feature) {
+		if (entryPoint == -1) {
+			entryPoint = node;
+			topLevel = level;
+			return;
+		}
+
+		int entry = entryPoint;
+		for (int layer = topLevel; layer > level; --layer) {
+			entry = greedy(entry, feature, layer);
+		}
+		int[] neighbours = query.selected;
+		for (int layer = Math.min(topLevel, level); layer >= 0; --layer) {
+			searchLayer(query, entry, feature, layer);
+			NeighbourHeap candidates = query.candidates;
+			candidates.sort();
+			int count = selectNeighbours(candidates, m, neighbours);
+			int[] list = list(layer, node);
+			int offset = offset(layer, node);
+			list[offset] = count;
+			System.arraycopy(neighbours, 0, list, offset + 1, count);
+			for (int i = 0; i < count; ++i) {
+				link(neighbours[i], node, layer, query);
+			}
+			entry = candidates.id(0);
+		}
+		if (level > topLevel) {
+			entryPoint = node;
+			topLevel = level;
+		}
+	}
+
+	/**
+	 * Adds a link from the node to the neighbour on the given layer. If the
+	 * node already has as many links as it can hold, its links are pruned
+	 * again with the new neighbour among the candidates.
+	 */
+	private void link(int node, int neighbour, int layer, Query query) {
+		int[] list = list(layer, node);
+		int offset = offset(layer, node);
+		int count = list[offset];
+		int capacity = layer == 0 ? maxM0 : m;
+		if (count < capacity) {
+			list[offset + 1 + count] = neighbour;
+			list[offset] = count + 1;
+			return;
+		}
+		NeighbourHeap candidates = query.pruning;
+		candidates.clear();
+		candidates.offer(neighbour, distance(node, neighbour));
+		for (int i = 0; i < count; ++i) {
+			int other = list[offset + 1 + i];
+			candidates.offer(other, distance(node, other));
+		}
+		candidates.sort();
+		int[] neighbours = query.pruned;
+		count = selectNeighbours(candidates, capacity, neighbours);
+		list[offset] = count;
+		System.arraycopy(neighbours, 0, list, offset + 1, count);
+	}
+
+	/**
+	 * Chooses at most max neighbours out of the sorted candidates, skipping
+	 * any candidate that is nearer to an already chosen neighbour than to the
+	 * node itself. This keeps links pointing in different directions, which
+	 * keeps the graph navigable in clustered data. Returns the number chosen.
+	 */
+	private int selectNeighbours(NeighbourHeap candidates, int max, int[] result) {
+		int count = 0;
+		for (int i = 0; i < candidates.size() && count < max; ++i) {
+			int candidate = candidates.id(i);
+			double dist = candidates.distance(i);
+			boolean keep = true;
+			for (int j = 0; j < count; ++j) {
+				if (distance(candidate, result[j]) < dist) {
+					keep = false;
+					break;
+				}
+			}
+			if (keep) {
+				result[count++] = candidate;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Walks from the entry to ever nearer neighbours on the layer until none
+	 * of the neighbours is nearer, and returns the node reached.
+	 */
+	private int greedy(int entry, double[] feature, int layer) {
+		double best = distance(entry, feature);
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			int[] list = list(layer, entry);
+			int offset = offset(layer, entry);
+			int count = list[offset];
+			for (int i = 1; i <= count; ++i) {
+				int neighbour = list[offset + i];
+				double dist = distance(neighbour, feature);
+				if (dist < best) {
+					best = dist;
+					entry = neighbour;
+					changed = true;
+				}
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Finds the nearest nodes to the feature on the layer, starting from the
+	 * entry. The nodes found are left unsorted in the query's candidates.
+	 */
+	private void searchLayer(Query query, int entry, double[] feature, int layer) {
+		NeighbourHeap results = query.candidates;
+		FrontierHeap frontier = query.frontier;
+		query.nextVisit();
+		results.clear();
+		frontier.clear();
+
+		double dist = distance(entry, feature);
+		query.visit(entry);
+		results.offer(entry, dist);
+		frontier.push(entry, dist);
+		while (frontier.size() > 0) {
+			// Stops once the nearest unexplored node is farther than all the
+			// results, since none of its neighbours can improve them.
+			if (frontier.distance() > results.bound()) {
+				break;
+			}
+			int node = frontier.pop();
+			int[] list = list(layer, node);
+			int offset = offset(layer, node);
+			int count = list[offset];
+			for (int i = 1; i <= count; ++i) {
+				int neighbour = list[offset + i];
+				if (!query.visit(neighbour)) {
+					continue;
+				}
+				dist = distance(neighbour, feature);
+				if (dist < results.bound()) {
+					results.offer(neighbour, dist);
+					frontier.push(neighbour, dist);
+				}
+			}
+		}
+	}
+
+	private int[] list(int layer, int node) {
+		return layer == 0 ? links0 : links[node];
+	}
+
+	private int offset(int layer, int node) {
+		return layer == 0 ? node * (maxM0 + 1) : (layer - 1) * (m + 1);
+	}
+
+	/**
+	 * The state of a search for the k nearest neighbours of a feature. A query
+	 * can be reused for any number of searches, but must not be used by more
+	 * than one thread at a time.
+	 */
+	public static class Query {
+		private NeighbourHeap nearest;
+		private NeighbourHeap candidates;
+		private NeighbourHeap pruning = null;
+		private int[] selected = null;
+		private int[] pruned = null;
+		private FrontierHeap frontier = new FrontierHeap();
+		private int[] visits;
+		private int visit = 0;
+
+		private Query(int k, int ef, int size) {
+			nearest = new NeighbourHeap(k);
+			candidates = new NeighbourHeap(Math.max(k, ef));
+			visits = new int[size];
+		}
+
+		/**
+		 * Starts a new search, in which no node has been visited yet.
+		 */
+		private void nextVisit() {
+			if (++visit == Integer.MAX_VALUE) {
+				Arrays.fill(visits, 0);
+				visit = 1;
+			}
+		}
+
+		/**
+		 * Marks the node as visited and returns whether it was not already.
+		 */
+		private boolean visit(int node) {
+			if (visits[node] == visit) {
+				return false;
+			}
+			visits[node] = visit;
+			return true;
+		}
+	}
+
+	/**
+	 * Creates a query for the k nearest neighbours with the default efSearch.
+	 *
+	 * @param k
+	 * @return
+	 */
+	public Query query(int k) {
+		return query(k, efSearch);
+	}
+
+	/**
+	 * Creates a query for the k nearest neighbours which keeps ef candidates.
+	 * A larger ef raises the recall of the search at the cost of its speed.
+	 *
+	 * @param k
+	 * @param ef
+	 * @return
+	 */
+	public Query query(int k, int ef) {
+		return new Query(k, ef, frames.length);
+	}
+
+	@Override
+	public Search search(int k) {
+		Query query = query(k);
+		return feature -> nearest(query, feature);
+	}
+
+	/**
+	 * Finds the approximate k nearest neighbours of the feature, using the
+	 * query to hold the state of the search. The neighbours are returned from
+	 * nearest to farthest in a heap that belongs to the query and is
+	 * overwritten by its next search.
+	 *
+	 * @param query
+	 * @param feature
+	 * @return
+	 */
+	public NeighbourHeap nearest(Query query, double[] feature) {
+		NeighbourHeap nearest = query.nearest;
+		nearest.clear();
+		if (entryPoint == -1) {
+			return nearest;
+		}
+		int entry = entryPoint;
+		for (int layer = topLevel; layer > 0; --layer) {
+			entry = greedy(entry, feature, layer);
+		}
+		searchLayer(query, entry, feature, 0);
+		NeighbourHeap candidates = query.candidates;
+		for (int i = 0; i < candidates.size(); ++i) {
+			nearest.offer(frames[candidates.id(i)], candidates.distance(i));
+		}
+		nearest.sort();
+		return nearest;
+	}
+
+	private double distance(int node, double[] feature) {
+		int offset = node * dataSize;
+		double result = 0;
+		for (int i = 0; i < dataSize; ++i) {
+			double diff = points[offset + i] - feature[i];
+			result += diff * diff;
+		}
+		return result;
+	}
+
+	private double distance(int lhs, int rhs) {
+		int lhsOffset = lhs * dataSize;
+		int rhsOffset = rhs * dataSize;
+		double result = 0;
+		for (int i = 0; i < dataSize; ++i) {
+			double diff = points[lhsOffset + i] - points[rhsOffset + i];
+			result += diff * diff;
+		}
+		return result;
+	}
+
+	/**
+	 * A growable binary min-heap of the nodes still to be explored, ordered by
+	 * their squared distance to the feature.
+	 */
+	private static class FrontierHeap {
+		private int[] ids = new int[64];
+		private double[] distances = new double[64];
+		private int size = 0;
+
+		public void clear() {
+			size = 0;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * Returns the distance of the nearest node.
+		 */
+		public double distance() {
+			return distances[0];
+		}
+
+		public void push(int id, double distance) {
+			if (size == ids.length) {
+				ids = Arrays.copyOf(ids, 2 * size);
+				distances = Arrays.copyOf(distances, 2 * size);
+			}
+			int i = size++;
+			while (i > 0) {
+				int parent = (i - 1) / 2;
+				if (distances[parent] <= distance) {
+					break;
+				}
+				ids[i] = ids[parent];
+				distances[i] = distances[parent];
+				i = parent;
+			}
+			ids[i] = id;
+			distances[i] = distance;
+		}
+
+		/**
+		 * Removes the nearest node and returns its id.
+		 */
+		public int pop() {
+			int result = ids[0];
+			int id = ids[--size];
+			double distance = distances[size];
+			int i = 0;
+			while (true) {
+				int child = 2 * i + 1;
+				if (child >= size) {
+					break;
+				}
+				if (child + 1 < size && distances[child + 1] < distances[child]) {
+					++child;
+				}
+				if (distances[child] >= distance) {
+					break;
+				}
+				ids[i] = ids[child];
+				distances[i] = distances[child];
+				i = child;
+			}
+			ids[i] = id;
+			distances[i] = distance;
+			return result;
+		}
+	}
+}
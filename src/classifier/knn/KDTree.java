@@ -1,9 +1,10 @@
 package classifier.knn;
 
 import java.util.Arrays;
-import java.util.List;
+import java.util.function.IntPredicate;
 
-import classifier.Entry;
+import classifier.FeatureStore;
+import classifier.Precision;
 
 /**
  * An implementation of a KD tree. This is a data structure that partitions data
@@ -11,105 +12,228 @@ import classifier.Entry;
  * allow for faster lookup of the nearest neighbours by eliminating regions of
  * space where they cannot be located.
  * 
+ * The tree is implicit: the median of the range [begin, end) sits at its
+ * middle index, with the lower half of the range before it and the upper half
+ * after it. Each node splits along the axis on which its region of space is
+ * the widest, which is kept in a primitive array next to the median. The
+ * coordinates of the points are copied into one contiguous array and are
+ * partitioned in place, so both the build and the search walk through flat
+ * arrays instead of following references.
+ * 
+ * Once the tree is built, the coordinates can be held at a lower precision to
+ * cut the memory read by each search, at the cost of approximate distances.
+ * 
+ * A tree is never modified once it is built, so it can be searched by any
+ * number of threads at once, provided that each thread uses its own query.
+ * 
  * @author Andrei Purcarus
  *
  */
-public class KDTree {
-	private int dataSize;
-	private Entry[] entries;
+public class KDTree implements NeighbourIndex {
+	private final int dataSize;
+	private final int[] frames;
+	private final CompactPoints points;
+	private final byte[] axes;
+
+	/**
+	 * Creates a KD tree over the given frames of the store.
+	 * 
+	 * @param store
+	 * @param frames
+	 * @param dataSize
+	 */
+	public KDTree(FeatureStore store, int[] frames, int dataSize) {
+		this(store, frames, dataSize, Precision.FLOAT64);
+	}
 
-	public KDTree(List<Entry> entries, int dataSize) {
+	/**
+	 * Creates a KD tree over the given frames of the store whose coordinates
+	 * are held at the given precision.
+	 * 
+	 * @param store
+	 * @param frames
+	 * @param dataSize
+	 * @param precision
+	 */
+	public KDTree(FeatureStore store, int[] frames, int dataSize, Precision precision) {
+		FlatPoints flat = new FlatPoints(store, frames, dataSize);
 		this.dataSize = dataSize;
-		this.entries = entries.toArray(new Entry[entries.size()]);
-		create(0, entries.size(), 0);
+		this.frames = flat.frames;
+		axes = new byte[frames.length];
+		create(flat, 0, frames.length, flat.bounds());
+		flat.arrange();
+		points = CompactPoints.of(flat, precision);
+	}
+
+	/**
+	 * Returns a builder for trees whose coordinates are held at the given
+	 * precision, to be passed to a nearest neighbour classifier.
+	 * 
+	 * @param precision
+	 * @return
+	 */
+	public static Builder builder(Precision precision) {
+		return (store, frames, dataSize) -> new KDTree(store, frames, dataSize, precision);
+	}
+
+	/**
+	 * Returns the number of bytes used by the tree, which grows with the
+	 * number of frames.
+	 * 
+	 * @return
+	 */
+	public long size() {
+		return points.size() + 4L * frames.length + axes.length;
 	}
 
-	private void create(int begin, int end, int depth) {
+	/**
+	 * Builds the subtree over the range [begin, end), whose points lie in the
+	 * box given by the bounds. The bounds are narrowed for each child and
+	 * restored before returning.
+	 */
+	private void create(FlatPoints flat, int begin, int end, double[] bounds) {
 		if (begin + 1 >= end) {
 			return;
 		}
 
-		// Chooses the current axis based on the depth.
-		int axis = depth % dataSize;
+		// Chooses the axis along which the box of the range is the widest.
+		// Since the box of a child is its parent's cut at the median, this
+		// takes constant time per node instead of a pass over the points.
+		int axis = flat.widestAxis(bounds);
 
 		// Finds the median on the axis and partitions the data such that lower
 		// points on the axis lie below the median and higher points lie above
-		// it. Note that a partition algorithm can also be used here.
-		Arrays.sort(entries, begin, end, (lhs, rhs) -> Double.compare(lhs.feature[axis], rhs.feature[axis]));
+		// it.
 		int medianIndex = (begin + end) / 2;
+		double median = flat.select(axis, begin, end, medianIndex);
+		axes[medianIndex] = (byte) axis;
+
+		double upper = bounds[dataSize + axis];
+		bounds[dataSize + axis] = median;
+		create(flat, begin, medianIndex, bounds);
+		bounds[dataSize + axis] = upper;
+
+		double lower = bounds[axis];
+		bounds[axis] = median;
+		create(flat, medianIndex + 1, end, bounds);
+		bounds[axis] = lower;
+	}
+
+	/**
+	 * The state of a search for the k nearest neighbours of a feature. A query
+	 * can be reused for any number of searches, but must not be used by more
+	 * than one thread at a time.
+	 */
+	public static class Query {
+		private NeighbourHeap nearest;
 
-		create(begin, medianIndex, depth + 1);
-		create(medianIndex + 1, end, depth + 1);
+		public Query(int k) {
+			nearest = new NeighbourHeap(k);
+		}
 	}
 
-	private Entry[] currentNearest;
+	/**
+	 * Returns the frame ids of the k nearest neighbours of the feature, nearest
+	 * first. If there are fewer than k frames in the tree, the remaining ids
+	 * are -1.
+	 * 
+	 * @param k
+	 * @param feature
+	 * @return
+	 */
+	public int[] nearest(int k, double[] feature) {
+		NeighbourHeap nearest = nearest(new Query(k), feature);
+		int[] result = new int[k];
+		Arrays.fill(result, -1);
+		for (int i = 0; i < nearest.size(); ++i) {
+			result[i] = nearest.id(i);
+		}
+		return result;
+	}
+
+	@Override
+	public Search search(int k) {
+		Query query = new Query(k);
+		return feature -> nearest(query, feature);
+	}
+
+	/**
+	 * Returns a search for the k nearest neighbours among the frames accepted
+	 * by the filter.
+	 * 
+	 * @param k
+	 * @param filter
+	 * @return
+	 */
+	public Search search(int k, IntPredicate filter) {
+		Query query = new Query(k);
+		return feature -> nearest(query, feature, filter);
+	}
+
+	/**
+	 * Finds the k nearest neighbours of the feature, using the query to hold
+	 * the state of the search. The neighbours are returned from nearest to
+	 * farthest in a heap that belongs to the query and is overwritten by its
+	 * next search.
+	 * 
+	 * @param query
+	 * @param feature
+	 * @return
+	 */
+	public NeighbourHeap nearest(Query query, double[] feature) {
+		return nearest(query, feature, null);
+	}
 
-	public Entry[] nearest(int k, double[] feature) {
-		currentNearest = new Entry[k];
-		nearest(0, entries.length, feature, 0);
-		return currentNearest;
+	/**
+	 * Finds the k nearest neighbours of the feature among the frames accepted
+	 * by the filter, or among all frames if the filter is null. Rejected
+	 * frames are skipped but still split the space, so a filter which rejects
+	 * many of the nearest frames makes the search visit more of the tree.
+	 * 
+	 * @param query
+	 * @param feature
+	 * @param filter
+	 * @return
+	 */
+	public NeighbourHeap nearest(Query query, double[] feature, IntPredicate filter) {
+		NeighbourHeap nearest = query.nearest;
+		nearest.clear();
+		nearest(nearest, 0, frames.length, feature, filter);
+		nearest.sort();
+		return nearest;
 	}
 
-	private void nearest(int begin, int end, double[] feature, int depth) {
+	private void nearest(NeighbourHeap nearest, int begin, int end, double[] feature, IntPredicate filter) {
 		if (begin == end) {
 			return;
-		} else if (begin + 1 == end) {
-			check(entries[begin], feature);
-			return;
 		}
 
-		// Chooses the current axis based on the depth.
-		int axis = depth % dataSize;
-
-		// Checks the median.
+		// Checks the median, which is the only point of a leaf.
 		int medianIndex = (begin + end) / 2;
-		Entry entry = entries[medianIndex];
-		check(entry, feature);
-		if (feature[axis] < entry.feature[axis]) {
-			nearest(begin, medianIndex, feature, depth + 1);
+		int frame = frames[medianIndex];
+		if (filter == null || filter.test(frame)) {
+			nearest.offer(frame, points.distance(medianIndex, feature));
+		}
+		if (begin + 1 == end) {
+			return;
+		}
+
+		int axis = axes[medianIndex];
+		double diff = feature[axis] - points.get(medianIndex, axis);
+		if (diff < 0) {
+			nearest(nearest, begin, medianIndex, feature, filter);
 			// Only checks the other side of the axis if it is possible that
 			// a neighbour nearer than those found so far can be located there.
-			if (crosses(entry, feature, axis)) {
-				nearest(medianIndex + 1, end, feature, depth + 1);
+			if (diff * diff < nearest.bound()) {
+				nearest(nearest, medianIndex + 1, end, feature, filter);
 			}
 		} else {
-			nearest(medianIndex + 1, end, feature, depth + 1);
+			nearest(nearest, medianIndex + 1, end, feature, filter);
 			// Only checks the other side of the axis if it is possible that
 			// a neighbour nearer than those found so far can be located there.
-			if (crosses(entry, feature, axis)) {
-				nearest(begin, medianIndex, feature, depth + 1);
-			}
-		}
-	}
-
-	private void check(Entry candidate, double[] feature) {
-		for (int i = 0; i < currentNearest.length; ++i) {
-			Entry entry = currentNearest[i];
-			if (entry == null || distance(candidate.feature, feature) < distance(entry.feature, feature)) {
-				currentNearest[i] = candidate;
-				candidate = entry;
+			if (diff * diff < nearest.bound()) {
+				nearest(nearest, begin, medianIndex, feature, filter);
 			}
 		}
 	}
-
-	private boolean crosses(Entry median, double[] feature, int axis) {
-		for (Entry entry : currentNearest) {
-			if (entry == null || distance(feature, median.feature, axis) < distance(feature, entry.feature)) {
-				return true;
-			}
-		}
-		return false;
-	}
-
-	private double distance(double[] lhs, double[] rhs) {
-		double result = 0;
-		for (int i = 0; i < dataSize; ++i) {
-			result += (lhs[i] - rhs[i]) * (lhs[i] - rhs[i]);
-		}
-		return Math.sqrt(result);
-	}
-
-	private double distance(double[] lhs, double[] rhs, int axis) {
-		return Math.abs(lhs[axis] - rhs[axis]);
-	}
 }
@@ -1,12 +1,6 @@
 package classifier.knn;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import classifier.Entry;
-import classifier.SongClassifier;
 import main.Genre;
-import main.Song;
 import numeric.Plurality;
 
 /**
@@ -14,52 +8,84 @@ import numeric.Plurality;
  * nearest neighbours to classify new features. It then classifies songs by
  * taking the plurality vote of the individual feature classifications.
  * 
+ * The neighbours are found as described in NeighbourVoteClassifier, which
+ * also splits the features of a song across threads in parallel mode.
+ * 
  * @author Andrei Purcarus
  *
  */
-public class KNNClassifier implements SongClassifier {
-	private int k;
-	private List<Entry> songs = new ArrayList<>();
-	private KDTree tree = null;
+public class KNNClassifier extends NeighbourVoteClassifier<Plurality<Genre>> {
+	private static final Genre[] GENRES = Genre.class.getEnumConstants();
 
 	public KNNClassifier(int k) {
-		this.k = k;
+		this(k, false);
 	}
 
-	@Override
-	public void add(List<double[]> song, Genre genre) {
-		for (double[] feature : song) {
-			songs.add(new Entry(feature, genre));
-		}
+	public KNNClassifier(int k, boolean parallel) {
+		this(k, parallel, KDTree::new);
+	}
+
+	/**
+	 * Creates a classifier which searches for neighbours in the index made by
+	 * the given builder, such as BucketKDTree::new.
+	 * 
+	 * @param k
+	 * @param parallel
+	 * @param builder
+	 */
+	public KNNClassifier(int k, boolean parallel, NeighbourIndex.Builder builder) {
+		super(k, parallel, builder);
+	}
+
+	/**
+	 * Creates a classifier which only searches for the neighbours of the
+	 * frames of a song among the frames of the given number of training songs
+	 * nearest to it by descriptor. The frames of those songs are indexed by
+	 * the given builder.
+	 * 
+	 * @param k
+	 * @param parallel
+	 * @param builder
+	 * @param candidates
+	 */
+	public KNNClassifier(int k, boolean parallel, NeighbourIndex.Builder builder, int candidates) {
+		super(k, parallel, builder, candidates);
+	}
+
+	/**
+	 * Creates a classifier which finds approximate neighbours within the
+	 * limits of the given search, and which classifies each song within its
+	 * time budget if it has one.
+	 * 
+	 * @param k
+	 * @param parallel
+	 * @param search
+	 */
+	public KNNClassifier(int k, boolean parallel, ApproximateSearch search) {
+		super(k, parallel, search);
 	}
 
 	@Override
-	public void train() {
-		// Uses a KD tree to speed up classification.
-		tree = new KDTree(songs, Song.FEATURES);
+	Plurality<Genre> tally() {
+		return new Plurality<>();
 	}
 
 	@Override
-	public Genre classify(List<double[]> song) {
+	void vote(Plurality<Genre> tally, NeighbourHeap nearest) {
 		Plurality<Genre> plurality = new Plurality<>();
-		for (double[] feature : song) {
-			plurality.add(classify(feature));
+		for (int i = 0; i < nearest.size(); ++i) {
+			plurality.add(GENRES[label(nearest.id(i))]);
 		}
-		return plurality.vote();
+		tally.add(plurality.vote());
 	}
 
-	private Genre classify(double[] feature) {
-		Entry[] nearest = tree.nearest(k, feature);
-		Plurality<Genre> plurality = new Plurality<>();
-		for (Entry entry : nearest) {
-			plurality.add(entry.genre);
-		}
-		return plurality.vote();
+	@Override
+	void merge(Plurality<Genre> tally, Plurality<Genre> other) {
+		tally.addAll(other);
 	}
 
 	@Override
-	public void clear() {
-		songs = new ArrayList<>();
-		tree = null;
+	Genre result(Plurality<Genre> tally) {
+		return tally.vote();
 	}
 }
@@ -0,0 +1,145 @@
+package classifier.knn;
+
+/**
+ * A bounded max-heap of the k nearest neighbours found so far in a search. It
+ * keeps the frame id and squared distance of each neighbour in primitive
+ * arrays, with the farthest neighbour at the root, so the distance a new
+ * candidate has to beat is available in constant time.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class NeighbourHeap {
+	private final int[] ids;
+	private final double[] distances;
+	private int size = 0;
+
+	/**
+	 * Creates an empty heap which holds at most k neighbours.
+	 *
+	 * @param k
+	 */
+	public NeighbourHeap(int k) {
+		ids = new int[k];
+		distances = new double[k];
+	}
+
+	/**
+	 * Removes all neighbours from the heap.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/**
+	 * Returns the maximum number of neighbours held.
+	 *
+	 * @return
+	 */
+	public int capacity() {
+		return ids.length;
+	}
+
+	/**
+	 * Returns the number of neighbours held.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the frame id of the ith neighbour.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public int id(int i) {
+		return ids[i];
+	}
+
+	/**
+	 * Returns the squared distance of the ith neighbour.
+	 *
+	 * @param i
+	 * @return
+	 */
+	public double distance(int i) {
+		return distances[i];
+	}
+
+	/**
+	 * Returns the squared distance a candidate must be below to be added to
+	 * the heap. This is infinite until the heap is full.
+	 *
+	 * @return
+	 */
+	public double bound() {
+		return size < ids.length ? Double.POSITIVE_INFINITY : distances[0];
+	}
+
+	/**
+	 * Adds the candidate if the heap is not full or if it is nearer than the
+	 * farthest neighbour, which it then replaces.
+	 *
+	 * @param id
+	 * @param distance
+	 *            The squared distance of the candidate.
+	 */
+	public void offer(int id, double distance) {
+		if (size < ids.length) {
+			siftUp(size++, id, distance);
+		} else if (distance < distances[0]) {
+			siftDown(0, size, id, distance);
+		}
+	}
+
+	/**
+	 * Sorts the neighbours from nearest to farthest. This breaks the heap
+	 * order, so it must only be done once the search is over.
+	 */
+	public void sort() {
+		for (int end = size - 1; end > 0; --end) {
+			int id = ids[end];
+			double distance = distances[end];
+			ids[end] = ids[0];
+			distances[end] = distances[0];
+			siftDown(0, end, id, distance);
+		}
+	}
+
+	private void siftUp(int i, int id, double distance) {
+		while (i > 0) {
+			int parent = (i - 1) / 2;
+			if (distances[parent] >= distance) {
+				break;
+			}
+			ids[i] = ids[parent];
+			distances[i] = distances[parent];
+			i = parent;
+		}
+		ids[i] = id;
+		distances[i] = distance;
+	}
+
+	private void siftDown(int i, int end, int id, double distance) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= end) {
+				break;
+			}
+			if (child + 1 < end && distances[child + 1] > distances[child]) {
+				++child;
+			}
+			if (distances[child] <= distance) {
+				break;
+			}
+			ids[i] = ids[child];
+			distances[i] = distances[child];
+			i = child;
+		}
+		ids[i] = id;
+		distances[i] = distance;
+	}
+}
@@ -0,0 +1,49 @@
+package classifier.knn;
+
+import classifier.FeatureStore;
+
+/**
+ * An index over the frames of a feature store which finds the nearest
+ * neighbours of a feature. An index is never modified once it is built, so it
+ * can be searched by any number of threads at once, provided that each thread
+ * uses its own search.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public interface NeighbourIndex {
+	/**
+	 * Creates a search for the k nearest neighbours of features in this
+	 * index.
+	 *
+	 * @param k
+	 * @return
+	 */
+	Search search(int k);
+
+	/**
+	 * The state of a search for the k nearest neighbours of a feature. A
+	 * search can be reused for any number of features, but must not be used by
+	 * more than one thread at a time.
+	 */
+	@FunctionalInterface
+	interface Search {
+		/**
+		 * Finds the k nearest neighbours of the feature. The neighbours are
+		 * returned from nearest to farthest in a heap that belongs to the
+		 * search and is overwritten by its next call.
+		 *
+		 * @param feature
+		 * @return
+		 */
+		NeighbourHeap nearest(double[] feature);
+	}
+
+	/**
+	 * Builds an index over the given frames of the store.
+	 */
+	@FunctionalInterface
+	interface Builder {
+		NeighbourIndex build(FeatureStore store, int[] frames, int dataSize);
+	}
+}
@@ -0,0 +1,266 @@
+package classifier.knn;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.IntStream;
+
+import classifier.FeatureStore;
+import classifier.SongClassifier;
+import classifier.TrainingSet;
+import main.Genre;
+import main.Song;
+
+/**
+ * A classifier which looks up the k nearest training frames of each feature of
+ * a song and lets them vote for its genre. This class finds the neighbours,
+ * and its subclasses decide how they vote: each feature adds the votes of its
+ * neighbours to a tally, and the genre of the song is read from the tally of
+ * all its features.
+ * 
+ * The neighbours are looked up in a NeighbourIndex, which is a KDTree unless
+ * another builder is given.
+ * 
+ * Optionally, each song can first be compared to the training songs by their
+ * descriptors, and its frames are then only searched for among the frames of
+ * the nearest few candidate songs, in an index built for that song alone. This
+ * replaces a search of every training frame by a search of a small fraction of
+ * them, at the cost of missing neighbours in songs that are not candidates.
+ * 
+ * In parallel mode, the features of a song are split across the common
+ * fork-join pool. Each worker searches the index with its own search and votes
+ * into its own tally, and the tallies are merged once all the features have
+ * been classified. This lowers the latency of classifying a single song.
+ * 
+ * The searches only live as long as the classification of a song, so no
+ * thread keeps a search, and through it the index, once the classifier is
+ * cleared.
+ * 
+ * @param <T>
+ *            The tally of the votes of a set of features.
+ * 
+ * @author Andrei Purcarus
+ *
+ */
+abstract class NeighbourVoteClassifier<T> implements SongClassifier {
+	private int k;
+	private boolean parallel;
+	private TrainingSet songs = new TrainingSet();
+	private FeatureStore store = null;
+	private NeighbourIndex.Builder builder;
+	private NeighbourIndex index = null;
+	private long timeBudget = 0;
+	private int candidates = 0;
+	private SongDescriptors descriptors = null;
+	private int[] trainingSongs = null;
+
+	/**
+	 * Creates a classifier which searches for neighbours in the index made by
+	 * the given builder.
+	 * 
+	 * @param k
+	 * @param parallel
+	 * @param builder
+	 */
+	protected NeighbourVoteClassifier(int k, boolean parallel, NeighbourIndex.Builder builder) {
+		this.k = k;
+		this.parallel = parallel;
+		this.builder = builder;
+	}
+
+	/**
+	 * Creates a classifier which only searches for the neighbours of the
+	 * frames of a song among the frames of the given number of training songs
+	 * nearest to it by descriptor. The frames of those songs are indexed by
+	 * the given builder.
+	 * 
+	 * @param k
+	 * @param parallel
+	 * @param builder
+	 * @param candidates
+	 */
+	protected NeighbourVoteClassifier(int k, boolean parallel, NeighbourIndex.Builder builder, int candidates) {
+		this(k, parallel, builder);
+		if (candidates < 1) {
+			throw new Error("song pre-filter must keep at least 1 candidate song");
+		}
+		this.candidates = candidates;
+	}
+
+	/**
+	 * Creates a classifier which finds approximate neighbours within the
+	 * limits of the given search, and which classifies each song within its
+	 * time budget if it has one.
+	 * 
+	 * @param k
+	 * @param parallel
+	 * @param search
+	 */
+	protected NeighbourVoteClassifier(int k, boolean parallel, ApproximateSearch search) {
+		this(k, parallel, search.builder());
+		timeBudget = search.timeBudget();
+	}
+
+	/**
+	 * Returns an empty tally.
+	 * 
+	 * @return
+	 */
+	abstract T tally();
+
+	/**
+	 * Adds the votes of the nearest neighbours of a feature to the tally.
+	 * 
+	 * @param tally
+	 * @param nearest
+	 */
+	abstract void vote(T tally, NeighbourHeap nearest);
+
+	/**
+	 * Adds the votes of another tally to the tally.
+	 * 
+	 * @param tally
+	 * @param other
+	 */
+	abstract void merge(T tally, T other);
+
+	/**
+	 * Returns the genre chosen by the votes of the tally.
+	 * 
+	 * @param tally
+	 * @return
+	 */
+	abstract Genre result(T tally);
+
+	/**
+	 * Returns the genre label of the training frame with the given id, which
+	 * is the ordinal of its genre.
+	 * 
+	 * @param frame
+	 * @return
+	 */
+	protected byte label(int frame) {
+		return store.label(frame);
+	}
+
+	@Override
+	public void add(List<double[]> song, Genre genre) {
+		songs.add(song, genre);
+	}
+
+	@Override
+	public void add(FeatureStore store, int song) {
+		songs.add(store, song);
+	}
+
+	@Override
+	public void train() {
+		// Uses an index, a KD tree by default, to speed up classification.
+		store = songs.store();
+		if (candidates > 0) {
+			// Computes the descriptors of the training songs up front, and
+			// leaves the indexes to be built for each song.
+			trainingSongs = songs.songs();
+			descriptors = new SongDescriptors(store, trainingSongs);
+			return;
+		}
+		index = builder.build(store, songs.frames(), Song.FEATURES);
+	}
+
+	/**
+	 * Builds an index over the frames of the candidate songs nearest to the
+	 * song by descriptor.
+	 */
+	private NeighbourIndex prefilter(List<double[]> song) {
+		int[] frames = descriptors.frames(SongDescriptors.describe(song), trainingSongs, candidates);
+		return builder.build(store, frames, Song.FEATURES);
+	}
+
+	/**
+	 * Returns a supplier of searches of the index for the classification of
+	 * one song. Each thread which classifies features of the song is given a
+	 * search of its own, which it reuses for all of them, and the searches are
+	 * dropped along with the supplier.
+	 */
+	private Supplier<NeighbourIndex.Search> searches(NeighbourIndex index) {
+		Map<Thread, NeighbourIndex.Search> searches = new ConcurrentHashMap<>();
+		return () -> searches.computeIfAbsent(Thread.currentThread(), thread -> index.search(k));
+	}
+
+	@Override
+	public Genre classify(List<double[]> song) {
+		Supplier<NeighbourIndex.Search> searches = searches(candidates > 0 ? prefilter(song) : index);
+		if (timeBudget > 0) {
+			return classifyWithinBudget(searches, song);
+		}
+		if (parallel) {
+			return IntStream.range(0, song.size()).parallel()
+					.collect(() -> new Votes(searches.get()), (votes, i) -> votes.add(song.get(i)), Votes::addAll)
+					.result();
+		}
+		Votes votes = new Votes(searches.get());
+		for (double[] feature : song) {
+			votes.add(feature);
+		}
+		return votes.result();
+	}
+
+	/**
+	 * Classifies the features of the song in interleaved order until the time
+	 * budget runs out. At least one feature is always classified.
+	 */
+	private Genre classifyWithinBudget(Supplier<NeighbourIndex.Search> searches, List<double[]> song) {
+		long start = System.nanoTime();
+		int[] order = ApproximateSearch.interleave(song.size());
+		if (parallel) {
+			return IntStream.range(0, order.length).parallel().collect(() -> new Votes(searches.get()), (votes, i) -> {
+				if (i == 0 || System.nanoTime() - start < timeBudget) {
+					votes.add(song.get(order[i]));
+				}
+			}, Votes::addAll).result();
+		}
+		Votes votes = new Votes(searches.get());
+		for (int i = 0; i < order.length; ++i) {
+			if (i > 0 && System.nanoTime() - start >= timeBudget) {
+				break;
+			}
+			votes.add(song.get(order[i]));
+		}
+		return votes.result();
+	}
+
+	/**
+	 * The tally of the features classified by one worker, along with the
+	 * search it finds their neighbours with.
+	 */
+	private class Votes {
+		private final NeighbourIndex.Search search;
+		private final T tally = tally();
+
+		public Votes(NeighbourIndex.Search search) {
+			this.search = search;
+		}
+
+		public void add(double[] feature) {
+			vote(tally, search.nearest(feature));
+		}
+
+		public void addAll(Votes other) {
+			merge(tally, other.tally);
+		}
+
+		public Genre result() {
+			return NeighbourVoteClassifier.this.result(tally);
+		}
+	}
+
+	@Override
+	public void clear() {
+		songs.clear();
+		store = null;
+		index = null;
+		descriptors = null;
+		trainingSongs = null;
+	}
+}
@@ -0,0 +1,407 @@
+package classifier.knn;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import classifier.FeatureStore;
+
+/**
+ * A compressed nearest neighbour index based on product quantization. The axes
+ * are split into a few subspaces, and a codebook of at most 256 centroids is
+ * trained for each subspace by k-means. Each frame is then stored as one byte
+ * per subspace, the index of the nearest centroid to its values in that
+ * subspace. With the default 4 subspaces, a frame takes 4 bytes of codes and 4
+ * bytes of frame id, against 96 bytes of coordinates in a KD tree.
+ *
+ * A search uses asymmetric distances: the feature itself is not quantized, and
+ * the squared distance from each of its subvectors to every centroid is put in
+ * a lookup table. The approximate distance to a frame is then the sum of one
+ * table entry per subspace. Optionally, the nearest candidates found this way
+ * are re-ranked by their exact distances, which are read from the store the
+ * index was built over, so the neighbours returned are ordered as they would
+ * be by an exact KD tree search.
+ *
+ * So that a search does not have to scan every code, the frames are also split
+ * into inverted lists by a coarse k-means over all the axes, and a search only
+ * scans the lists whose centroids are nearest to the feature. The codes are
+ * not relative to the coarse centroids, so a single lookup table serves every
+ * list.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class ProductQuantizationIndex implements NeighbourIndex {
+	/**
+	 * The default number of subspaces.
+	 */
+	public static final int SUBSPACES = 4;
+
+	/**
+	 * The maximum number of centroids in each codebook, so that a code fits in
+	 * a byte.
+	 */
+	public static final int CENTROIDS = 256;
+
+	/**
+	 * The default number of inverted lists.
+	 */
+	public static final int LISTS = 256;
+
+	/**
+	 * The default number of inverted lists scanned by a search.
+	 */
+	public static final int PROBES = 8;
+
+	/**
+	 * The maximum number of frames sampled to train the codebooks.
+	 */
+	private static final int SAMPLE_SIZE = 16384;
+	private static final int ITERATIONS = 15;
+	private static final long SEED = 526;
+
+	private final int dataSize;
+	private final int subspaces;
+	private final int[] offsets;
+	private final int centroids;
+	private final double[][] codebooks;
+	private final double[] coarse;
+	private final int[] lists;
+	private final int[] frames;
+	private final byte[] codes;
+	private final FeatureStore store;
+	private final int probes;
+	private final int rerank;
+
+	/**
+	 * Creates an index over the given frames of the store with the default
+	 * parameters and no re-ranking.
+	 *
+	 * @param store
+	 * @param frames
+	 * @param dataSize
+	 */
+	public ProductQuantizationIndex(FeatureStore store, int[] frames, int dataSize) {
+		this(store, frames, dataSize, SUBSPACES, LISTS, PROBES, 0);
+	}
+
+	/**
+	 * Creates an index over the given frames of the store.
+	 *
+	 * @param store
+	 * @param frames
+	 * @param dataSize
+	 * @param subspaces
+	 *            The number of subspaces, and so of bytes per frame.
+	 * @param lists
+	 *            The number of inverted lists.
+	 * @param probes
+	 *            The number of inverted lists scanned unless a query asks for
+	 *            another number.
+	 * @param rerank
+	 *            The number of candidates re-ranked by their exact distances
+	 *            unless a query asks for another number, or 0 to return the
+	 *            approximate neighbours as they are.
+	 */
+	public ProductQuantizationIndex(FeatureStore store, int[] frames, int dataSize, int subspaces, int lists,
+			int probes, int rerank) {
+		if (subspaces < 1 || subspaces > dataSize) {
+			throw new Error("cannot split " + dataSize + " axes into " + subspaces + " subspaces");
+		}
+		if (lists < 1 || probes < 1) {
+			throw new Error("product quantization requires at least 1 inverted list");
+		}
+		this.dataSize = dataSize;
+		this.subspaces = subspaces;
+		this.store = store;
+		this.probes = probes;
+		this.rerank = rerank;
+
+		// Splits the axes as evenly as possible. Subspace s covers the axes
+		// from offsets[s] to offsets[s + 1].
+		offsets = new int[subspaces + 1];
+		for (int s = 0; s <= subspaces; ++s) {
+			offsets[s] = s * dataSize / subspaces;
+		}
+
+		// Trains the coarse centroids and the codebooks on a random sample of
+		// the frames.
+		Random rng = new Random(SEED);
+		int sampleSize = Math.min(frames.length, SAMPLE_SIZE);
+		double[] sample = new double[sampleSize * dataSize];
+		for (int i = 0; i < sampleSize; ++i) {
+			int frame = frames.length > SAMPLE_SIZE ? frames[rng.nextInt(frames.length)] : frames[i];
+			store.get(frame, sample, i * dataSize);
+		}
+		// An index over no frames has no centroids, so a search of it scans no
+		// lists and finds no neighbours, as with the KD trees.
+		int listCount = Math.min(lists, sampleSize);
+		coarse = kmeans(sample, sampleSize, 0, dataSize, listCount, rng);
+		centroids = Math.min(CENTROIDS, sampleSize);
+		codebooks = new double[subspaces][];
+		for (int s = 0; s < subspaces; ++s) {
+			codebooks[s] = kmeans(sample, sampleSize, offsets[s], offsets[s + 1] - offsets[s], centroids, rng);
+		}
+
+		// Assigns each frame to its list and encodes it.
+		int[] assignments = new int[frames.length];
+		byte[] unordered = new byte[frames.length * subspaces];
+		IntStream.range(0, frames.length).parallel().forEach(i -> {
+			double[] feature = store.get(frames[i], new double[dataSize]);
+			assignments[i] = nearestCentroid(feature, 0, dataSize, coarse);
+			for (int s = 0; s < subspaces; ++s) {
+				unordered[i * subspaces + s] = (byte) nearestCentroid(feature, offsets[s], offsets[s + 1] - offsets[s],
+						codebooks[s]);
+			}
+		});
+
+		// Lays out the frames list by list, so that the frames of list l lie
+		// between lists[l] and lists[l + 1].
+		this.lists = new int[listCount + 1];
+		for (int assignment : assignments) {
+			++this.lists[assignment + 1];
+		}
+		for (int l = 0; l < listCount; ++l) {
+			this.lists[l + 1] += this.lists[l];
+		}
+		int[] next = Arrays.copyOf(this.lists, listCount);
+		this.frames = new int[frames.length];
+		codes = new byte[frames.length * subspaces];
+		for (int i = 0; i < frames.length; ++i) {
+			int position = next[assignments[i]]++;
+			this.frames[position] = frames[i];
+			System.arraycopy(unordered, i * subspaces, codes, position * subspaces, subspaces);
+		}
+	}
+
+	/**
+	 * Returns a builder for indexes with the given parameters, to be passed to
+	 * a nearest neighbour classifier.
+	 *
+	 * @param subspaces
+	 * @param lists
+	 * @param probes
+	 * @param rerank
+	 * @return
+	 */
+	public static Builder builder(int subspaces, int lists, int probes, int rerank) {
+		return (store, frames, dataSize) -> new ProductQuantizationIndex(store, frames, dataSize, subspaces, lists,
+				probes, rerank);
+	}
+
+	/**
+	 * Trains k centroids for the width axes starting at begin by Lloyd's
+	 * algorithm on the sample, starting from distinct random points of the
+	 * sample.
+	 */
+	private double[] kmeans(double[] sample, int sampleSize, int begin, int width, int k, Random rng) {
+		double[] result = new double[k * width];
+		int[] chosen = new int[sampleSize];
+		for (int i = 0; i < sampleSize; ++i) {
+			chosen[i] = i;
+		}
+		for (int c = 0; c < k; ++c) {
+			int j = c + rng.nextInt(sampleSize - c);
+			int point = chosen[j];
+			chosen[j] = chosen[c];
+			chosen[c] = point;
+			System.arraycopy(sample, point * dataSize + begin, result, c * width, width);
+		}
+
+		double[] sums = new double[k * width];
+		int[] counts = new int[k];
+		for (int iteration = 0; iteration < ITERATIONS; ++iteration) {
+			Arrays.fill(sums, 0);
+			Arrays.fill(counts, 0);
+			for (int i = 0; i < sampleSize; ++i) {
+				int c = nearestCentroid(sample, i * dataSize + begin, width, result);
+				++counts[c];
+				for (int axis = 0; axis < width; ++axis) {
+					sums[c * width + axis] += sample[i * dataSize + begin + axis];
+				}
+			}
+			for (int c = 0; c < k; ++c) {
+				if (counts[c] == 0) {
+					// Moves an empty centroid to a random point of the sample.
+					int point = rng.nextInt(sampleSize);
+					System.arraycopy(sample, point * dataSize + begin, result, c * width, width);
+					continue;
+				}
+				for (int axis = 0; axis < width; ++axis) {
+					result[c * width + axis] = sums[c * width + axis] / counts[c];
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the centroid nearest to the width values starting at the offset.
+	 */
+	private static int nearestCentroid(double[] values, int offset, int width, double[] centroids) {
+		int result = 0;
+		double best = Double.POSITIVE_INFINITY;
+		for (int c = 0, i = 0; i < centroids.length; ++c) {
+			double dist = 0;
+			for (int axis = 0; axis < width; ++axis, ++i) {
+				double diff = values[offset + axis] - centroids[i];
+				dist += diff * diff;
+			}
+			if (dist < best) {
+				best = dist;
+				result = c;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of bytes used by the codes, frame ids and list
+	 * offsets, which grows with the number of frames. The centroids take a
+	 * small constant amount on top of this.
+	 *
+	 * @return
+	 */
+	public long size() {
+		return codes.length + 4L * frames.length + 4L * lists.length;
+	}
+
+	/**
+	 * The state of a search for the k nearest neighbours of a feature. A query
+	 * can be reused for any number of searches, but must not be used by more
+	 * than one thread at a time.
+	 */
+	public static class Query {
+		private NeighbourHeap nearest;
+		private NeighbourHeap candidates;
+		private NeighbourHeap probes;
+		private int rerank;
+		private double[] table;
+		private double[] value;
+
+		private Query(int k, int probes, int rerank, int tableSize, int dataSize) {
+			this.rerank = rerank;
+			nearest = new NeighbourHeap(k);
+			candidates = new NeighbourHeap(Math.max(k, rerank));
+			this.probes = new NeighbourHeap(probes);
+			table = new double[tableSize];
+			value = new double[dataSize];
+		}
+	}
+
+	/**
+	 * Creates a query for the k nearest neighbours which scans as many lists
+	 * and re-ranks as many candidates as the index was built with.
+	 *
+	 * @param k
+	 * @return
+	 */
+	public Query query(int k) {
+		return query(k, probes, rerank);
+	}
+
+	/**
+	 * Creates a query for the k nearest neighbours which scans the given number
+	 * of lists and re-ranks the given number of candidates, or none if it is 0.
+	 * Scanning more lists or re-ranking more candidates raises the recall of a
+	 * search at the cost of its speed.
+	 *
+	 * @param k
+	 * @param probes
+	 * @param rerank
+	 * @return
+	 */
+	public Query query(int k, int probes, int rerank) {
+		if (probes < 1) {
+			throw new Error("product quantization requires at least 1 inverted list");
+		}
+		return new Query(k, probes, rerank, subspaces * CENTROIDS, dataSize);
+	}
+
+	@Override
+	public Search search(int k) {
+		Query query = query(k);
+		return feature -> nearest(query, feature);
+	}
+
+	/**
+	 * Finds the approximate k nearest neighbours of the feature, using the
+	 * query to hold the state of the search. The neighbours are returned from
+	 * nearest to farthest in a heap that belongs to the query and is
+	 * overwritten by its next search. Without re-ranking, the distances in the
+	 * heap are the approximate ones.
+	 *
+	 * @param query
+	 * @param feature
+	 * @return
+	 */
+	public NeighbourHeap nearest(Query query, double[] feature) {
+		// Chooses the lists whose centroids are nearest to the feature.
+		NeighbourHeap probes = query.probes;
+		probes.clear();
+		for (int l = 0, i = 0; i < coarse.length; ++l) {
+			double dist = 0;
+			for (int axis = 0; axis < dataSize; ++axis, ++i) {
+				double diff = feature[axis] - coarse[i];
+				dist += diff * diff;
+			}
+			probes.offer(l, dist);
+		}
+
+		// Fills in the table of squared distances from each subvector of the
+		// feature to each centroid of its subspace.
+		double[] table = query.table;
+		for (int s = 0; s < subspaces; ++s) {
+			int begin = offsets[s];
+			int width = offsets[s + 1] - begin;
+			double[] codebook = codebooks[s];
+			for (int c = 0; c < centroids; ++c) {
+				double dist = 0;
+				for (int axis = 0; axis < width; ++axis) {
+					double diff = feature[begin + axis] - codebook[c * width + axis];
+					dist += diff * diff;
+				}
+				table[(s << 8) | c] = dist;
+			}
+		}
+
+		NeighbourHeap candidates = query.rerank > 0 ? query.candidates : query.nearest;
+		candidates.clear();
+		double bound = candidates.bound();
+		byte[] codes = this.codes;
+		int subspaces = this.subspaces;
+		for (int p = 0; p < probes.size(); ++p) {
+			int list = probes.id(p);
+			for (int i = lists[list], code = i * subspaces; i < lists[list + 1]; ++i) {
+				double dist = 0;
+				for (int s = 0; s < subspaces; ++s, ++code) {
+					dist += table[(s << 8) | (codes[code] & 0xff)];
+				}
+				if (dist < bound) {
+					candidates.offer(frames[i], dist);
+					bound = candidates.bound();
+				}
+			}
+		}
+
+		NeighbourHeap nearest = query.nearest;
+		if (query.rerank > 0) {
+			nearest.clear();
+			for (int i = 0; i < candidates.size(); ++i) {
+				int frame = candidates.id(i);
+				nearest.offer(frame, distance(store.get(frame, query.value), feature));
+			}
+		}
+		nearest.sort();
+		return nearest;
+	}
+
+	private double distance(double[] lhs, double[] rhs) {
+		double result = 0;
+		for (int i = 0; i < dataSize; ++i) {
+			double diff = lhs[i] - rhs[i];
+			result += diff * diff;
+		}
+		return result;
+	}
+}
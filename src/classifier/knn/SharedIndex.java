@@ -0,0 +1,74 @@
+package classifier.knn;
+
+import java.util.Arrays;
+
+import classifier.FeatureStore;
+
+/**
+ * A KD tree built once over all the frames of a store and shared by the
+ * nearest neighbour classifiers trained on subsets of its songs, such as the
+ * folds of a cross-validation. Instead of building a tree over its own
+ * training frames, each classifier searches the shared tree with a filter
+ * which rejects the frames it was not trained on, so the held-out songs never
+ * count as neighbours. An N-fold cross-validation then builds one tree instead
+ * of N, which matters most for leave-one-song-out validation.
+ *
+ * Since a classifier is trained on whole songs, the filter keeps one flag per
+ * song rather than one per frame, and looks up the song of each frame in a
+ * table shared by all the classifiers.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class SharedIndex {
+	private final FeatureStore store;
+	private final KDTree tree;
+	private final int[] songs;
+
+	/**
+	 * Builds a KD tree over all the frames of the store.
+	 *
+	 * @param store
+	 */
+	public SharedIndex(FeatureStore store) {
+		this.store = store;
+		int[] frames = new int[store.frameCount()];
+		for (int i = 0; i < frames.length; ++i) {
+			frames[i] = i;
+		}
+		tree = new KDTree(store, frames, store.dataSize());
+		songs = new int[store.frameCount()];
+		for (int song = 0; song < store.songCount(); ++song) {
+			Arrays.fill(songs, store.begin(song), store.end(song), song);
+		}
+	}
+
+	/**
+	 * Returns a builder to be passed to a nearest neighbour classifier. The
+	 * indexes it builds search the shared tree for neighbours among the frames
+	 * they are given, which must be all the frames of some songs of the same
+	 * store.
+	 *
+	 * @return
+	 */
+	public NeighbourIndex.Builder builder() {
+		return (store, frames, dataSize) -> {
+			if (store != this.store) {
+				throw new Error("shared index was built over another feature store");
+			}
+			boolean[] included = new boolean[store.songCount()];
+			int count = 0;
+			for (int frame : frames) {
+				int song = songs[frame];
+				if (!included[song]) {
+					included[song] = true;
+					count += store.end(song) - store.begin(song);
+				}
+			}
+			if (count != frames.length) {
+				throw new Error("shared index can only filter whole songs");
+			}
+			return k -> tree.search(k, frame -> included[songs[frame]]);
+		};
+	}
+}
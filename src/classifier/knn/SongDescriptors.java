@@ -0,0 +1,146 @@
+package classifier.knn;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import classifier.FeatureStore;
+import numeric.Stats;
+
+/**
+ * A cache of song descriptors for the songs of a feature store. A descriptor
+ * summarizes a whole song in a single point: the average of its frames
+ * followed by their standard deviation along each axis. Both halves are in the
+ * units of the frames, so the Euclidean distance between descriptors weighs
+ * them evenly.
+ *
+ * Comparing two songs by descriptor takes one distance evaluation instead of
+ * one nearest neighbour search per frame, so descriptors can be used to
+ * classify songs directly or to narrow a frame level search down to a few
+ * candidate songs.
+ *
+ * The descriptors of the songs a cache is created for are computed up front,
+ * in parallel, and kept in an array indexed by song id. The descriptor of any
+ * other song of the store is computed each time it is asked for. The cache is
+ * never modified once it is created, so it is safe to use from any number of
+ * threads.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class SongDescriptors {
+	private final FeatureStore store;
+	private final double[][] descriptors;
+
+	/**
+	 * Creates a cache of the descriptors of the given songs of the store.
+	 *
+	 * @param store
+	 * @param songs
+	 */
+	public SongDescriptors(FeatureStore store, int[] songs) {
+		this.store = store;
+		descriptors = new double[store.songCount()][];
+		IntStream.of(songs).parallel().forEach(song -> descriptors[song] = describe(song));
+	}
+
+	/**
+	 * Returns the descriptor of the song with the given id in the store.
+	 *
+	 * @param song
+	 * @return
+	 */
+	public double[] get(int song) {
+		double[] result = descriptors[song];
+		return result != null ? result : describe(song);
+	}
+
+	private double[] describe(int song) {
+		Stats stats = new Stats(store.dataSize());
+		double[] feature = new double[store.dataSize()];
+		for (int frame = store.begin(song); frame < store.end(song); ++frame) {
+			stats.add(store.get(frame, feature));
+		}
+		return describe(stats);
+	}
+
+	/**
+	 * Returns the descriptor of the song.
+	 *
+	 * @param song
+	 * @return
+	 */
+	public static double[] describe(List<double[]> song) {
+		Stats stats = new Stats(song.get(0).length);
+		for (double[] feature : song) {
+			stats.add(feature);
+		}
+		return describe(stats);
+	}
+
+	private static double[] describe(Stats stats) {
+		double[] average = stats.average();
+		double[][] covariance = stats.covariance();
+		int dataSize = average.length;
+		double[] result = new double[2 * dataSize];
+		System.arraycopy(average, 0, result, 0, dataSize);
+		if (covariance != null) {
+			for (int i = 0; i < dataSize; ++i) {
+				result[dataSize + i] = Math.sqrt(Math.max(covariance[i][i], 0));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the ids of the songs whose descriptors are nearest to the given
+	 * one, out of the given songs of the store, nearest first.
+	 *
+	 * @param descriptor
+	 * @param songs
+	 * @param count
+	 * @return
+	 */
+	public int[] nearest(double[] descriptor, int[] songs, int count) {
+		NeighbourHeap nearest = new NeighbourHeap(count);
+		for (int song : songs) {
+			double[] other = get(song);
+			double dist = 0;
+			for (int i = 0; i < descriptor.length; ++i) {
+				double diff = descriptor[i] - other[i];
+				dist += diff * diff;
+			}
+			nearest.offer(song, dist);
+		}
+		nearest.sort();
+		int[] result = new int[nearest.size()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = nearest.id(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the ids of all the frames of the songs whose descriptors are
+	 * nearest to the given one, out of the given songs of the store.
+	 *
+	 * @param descriptor
+	 * @param songs
+	 * @param count
+	 * @return
+	 */
+	public int[] frames(double[] descriptor, int[] songs, int count) {
+		int[] candidates = nearest(descriptor, songs, count);
+		int size = 0;
+		for (int song : candidates) {
+			size += store.end(song) - store.begin(song);
+		}
+		int[] result = new int[size];
+		int index = 0;
+		for (int song : candidates) {
+			for (int frame = store.begin(song); frame < store.end(song); ++frame) {
+				result[index++] = frame;
+			}
+		}
+		return result;
+	}
+}
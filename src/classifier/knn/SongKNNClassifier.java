@@ -0,0 +1,80 @@
+package classifier.knn;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import classifier.FeatureStore;
+import classifier.SongClassifier;
+import classifier.TrainingSet;
+import main.Genre;
+import numeric.Plurality;
+
+/**
+ * A nearest neighbour classifier which works on whole songs rather than on
+ * frames. Each song is summarized by its descriptor, and a new song is
+ * classified by the plurality vote of the k training songs with the nearest
+ * descriptors. This takes one distance evaluation per training song instead of
+ * one search per frame, so it is much faster than the frame level classifiers,
+ * but also coarser.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class SongKNNClassifier implements SongClassifier {
+	private int k;
+	private TrainingSet songs = new TrainingSet();
+	private FeatureStore store = null;
+	private SongDescriptors descriptors = null;
+	private int[] trainingSongs = null;
+
+	public SongKNNClassifier(int k) {
+		this.k = k;
+	}
+
+	@Override
+	public void add(List<double[]> song, Genre genre) {
+		songs.add(song, genre);
+	}
+
+	@Override
+	public void add(FeatureStore store, int song) {
+		songs.add(store, song);
+	}
+
+	@Override
+	public void train() {
+		store = songs.store();
+		trainingSongs = songs.songs();
+		descriptors = new SongDescriptors(store, trainingSongs);
+	}
+
+	@Override
+	public Genre classify(List<double[]> song) {
+		return classify(SongDescriptors.describe(song));
+	}
+
+	@Override
+	public Genre[] classifyAll(FeatureStore store, int[] songs) {
+		// Songs from the training store reuse its cache of descriptors.
+		SongDescriptors cache = store == this.store ? descriptors : new SongDescriptors(store, songs);
+		Genre[] result = new Genre[songs.length];
+		IntStream.range(0, songs.length).parallel().forEach(i -> result[i] = classify(cache.get(songs[i])));
+		return result;
+	}
+
+	private Genre classify(double[] descriptor) {
+		Plurality<Genre> plurality = new Plurality<>();
+		for (int song : descriptors.nearest(descriptor, trainingSongs, k)) {
+			plurality.add(store.genre(song));
+		}
+		return plurality.vote();
+	}
+
+	@Override
+	public void clear() {
+		songs.clear();
+		store = null;
+		descriptors = null;
+		trainingSongs = null;
+	}
+}
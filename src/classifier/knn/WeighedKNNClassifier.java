@@ -1,14 +1,6 @@
 package classifier.knn;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
-import classifier.Entry;
-import classifier.SongClassifier;
 import main.Genre;
-import main.Song;
 import numeric.Stats;
 
 /**
@@ -18,69 +10,103 @@ import numeric.Stats;
  * 
  * The weight of a neighbour a distance d away is w = 1 / d^2.
  * 
+ * The neighbours are found as described in NeighbourVoteClassifier, which
+ * also splits the features of a song across threads in parallel mode.
+ * 
  * @author Andrei Purcarus
  *
  */
-public class WeighedKNNClassifier implements SongClassifier {
-	private int k;
-	private List<Entry> songs = new ArrayList<>();
-	private KDTree tree = null;
+public class WeighedKNNClassifier extends NeighbourVoteClassifier<Stats> {
+	private static final Genre[] GENRES = Genre.class.getEnumConstants();
 
 	public WeighedKNNClassifier(int k) {
-		this.k = k;
+		this(k, false);
+	}
+
+	public WeighedKNNClassifier(int k, boolean parallel) {
+		this(k, parallel, KDTree::new);
+	}
+
+	/**
+	 * Creates a classifier which searches for neighbours in the index made by
+	 * the given builder, such as BucketKDTree::new.
+	 * 
+	 * @param k
+	 * @param parallel
+	 * @param builder
+	 */
+	public WeighedKNNClassifier(int k, boolean parallel, NeighbourIndex.Builder builder) {
+		super(k, parallel, builder);
 	}
 
+	/**
+	 * Creates a classifier which only searches for the neighbours of the
+	 * frames of a song among the frames of the given number of training songs
+	 * nearest to it by descriptor. The frames of those songs are indexed by
+	 * the given builder.
+	 * 
+	 * @param k
+	 * @param parallel
+	 * @param builder
+	 * @param candidates
+	 */
+	public WeighedKNNClassifier(int k, boolean parallel, NeighbourIndex.Builder builder, int candidates) {
+		super(k, parallel, builder, candidates);
+	}
+
+	/**
+	 * Creates a classifier which finds approximate neighbours within the
+	 * limits of the given search, and which classifies each song within its
+	 * time budget if it has one.
+	 * 
+	 * @param k
+	 * @param parallel
+	 * @param search
+	 */
+	public WeighedKNNClassifier(int k, boolean parallel, ApproximateSearch search) {
+		super(k, parallel, search);
+	}
+
+	// Each feature adds a probability vector over all genres to the tally,
+	// and the song is classified by the maximum likelihood (the genre with
+	// the highest average probability).
+
 	@Override
-	public void add(List<double[]> song, Genre genre) {
-		for (double[] feature : song) {
-			songs.add(new Entry(feature, genre));
-		}
+	Stats tally() {
+		return new Stats(GENRES.length);
 	}
 
 	@Override
-	public void train() {
-		// Uses a KD tree to speed up classification.
-		tree = new KDTree(songs, Song.FEATURES);
-		List<double[]> data = new ArrayList<>();
-		for (Entry song : songs) {
-			data.add(song.feature);
-		}
+	void vote(Stats tally, NeighbourHeap nearest) {
+		tally.add(probabilities(nearest));
 	}
 
-	private static final Genre[] GENRES = Genre.class.getEnumConstants();
-	private static final Map<Genre, Integer> GENRE_INDICES = new HashMap<>();
-	static {
-		for (int i = 0; i < GENRES.length; ++i) {
-			GENRE_INDICES.put(GENRES[i], i);
-		}
+	@Override
+	void merge(Stats tally, Stats other) {
+		tally.addAll(other);
 	}
 
 	@Override
-	public Genre classify(List<double[]> song) {
-		// Computes a probability vector over all genres for each feature, then
-		// averages them and takes the maximum likelihood (the genre with the
-		// highest probability).
-		Stats stats = new Stats(GENRES.length);
-		for (double[] feature : song) {
-			stats.add(classify(feature));
-		}
-		return maximumLikelihood(stats.average());
+	Genre result(Stats tally) {
+		return maximumLikelihood(tally.average());
 	}
 
-	private double[] classify(double[] feature) {
+	private double[] probabilities(NeighbourHeap nearest) {
 		// Computes a probability vector over all genres by adding the weights
 		// of the k nearest neighbours and normalizing.
-		Entry[] nearest = tree.nearest(k, feature);
+		// The tree already gives the squared distances, so no square roots
+		// are needed.
 		double[] probabilities = new double[GENRES.length];
-		for (Entry entry : nearest) {
-			double dist = distance(entry.feature, feature);
-			if (dist == 0) {
+		for (int i = 0; i < nearest.size(); ++i) {
+			int frame = nearest.id(i);
+			double dist2 = nearest.distance(i);
+			if (dist2 == 0) {
 				// For a distance of 0, we return probability 1 for this genre.
 				double[] guaranteed = new double[GENRES.length];
-				guaranteed[GENRE_INDICES.get(entry.genre)] = 1.0;
+				guaranteed[label(frame)] = 1.0;
 				return guaranteed;
 			}
-			probabilities[GENRE_INDICES.get(entry.genre)] += 1 / (dist * dist);
+			probabilities[label(frame)] += 1 / dist2;
 		}
 		return normalize(probabilities);
 	}
@@ -108,18 +134,4 @@ public class WeighedKNNClassifier implements SongClassifier {
 		}
 		return probabilities;
 	}
-
-	private double distance(double[] lhs, double[] rhs) {
-		double result = 0;
-		for (int i = 0; i < Song.FEATURES; ++i) {
-			result += (lhs[i] - rhs[i]) * (lhs[i] - rhs[i]);
-		}
-		return Math.sqrt(result);
-	}
-
-	@Override
-	public void clear() {
-		songs = new ArrayList<>();
-		tree = null;
-	}
 }
@@ -0,0 +1,161 @@
+package classifier.tree;
+
+import java.util.Arrays;
+
+import classifier.FeatureStore;
+
+/**
+ * The frames of a training set with each of their values replaced by the
+ * index of the bin it falls in along its axis. The bins of an axis are split
+ * at quantiles of a sample of its values, so each bin holds about as many
+ * frames as the others. With at most 256 bins per axis, a bin fits in a byte.
+ *
+ * Trees trained on binned frames only split at the edges of the bins, so the
+ * best split of a node along an axis can be found from the number of frames
+ * of each genre in each bin instead of by sorting the frames. The frames are
+ * binned once per training set and shared by all the trees of a forest.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class BinnedFrames {
+	/**
+	 * The maximum number of bins per axis.
+	 */
+	public static final int BINS = 256;
+
+	/**
+	 * The maximum number of values of each axis used to choose its bins.
+	 */
+	private static final int SAMPLE_SIZE = 65536;
+
+	private final int dataSize;
+	private final int size;
+	private final double[][] edges;
+	private final byte[][] bins;
+	private final byte[] labels;
+
+	/**
+	 * Bins the given frames of the store. Rows of the binned frames are
+	 * numbered in the order of the frames given.
+	 *
+	 * @param store
+	 * @param frames
+	 */
+	public BinnedFrames(FeatureStore store, int[] frames) {
+		dataSize = store.dataSize();
+		size = frames.length;
+		edges = new double[dataSize][];
+		bins = new byte[dataSize][size];
+		labels = new byte[size];
+		for (int row = 0; row < size; ++row) {
+			labels[row] = store.label(frames[row]);
+		}
+
+		int sampleSize = Math.min(size, SAMPLE_SIZE);
+		double[] sample = new double[sampleSize];
+		for (int axis = 0; axis < dataSize; ++axis) {
+			// Chooses the edges from evenly spaced frames, so that the bins do
+			// not depend on a random generator.
+			for (int i = 0; i < sampleSize; ++i) {
+				sample[i] = store.get(frames[(int) ((long) i * size / sampleSize)], axis);
+			}
+			Arrays.sort(sample);
+			double[] axisEdges = new double[BINS - 1];
+			int count = 0;
+			for (int bin = 1; bin < BINS; ++bin) {
+				double edge = sample[bin * sampleSize / BINS];
+				if (count == 0 || edge > axisEdges[count - 1]) {
+					axisEdges[count++] = edge;
+				}
+			}
+			edges[axis] = Arrays.copyOf(axisEdges, count);
+
+			for (int row = 0; row < size; ++row) {
+				bins[axis][row] = (byte) find(axis, store.get(frames[row], axis));
+			}
+		}
+	}
+
+	/**
+	 * Returns the bin of the value along the axis. A value lies in bin b if it
+	 * is at least the lower edge of b and below the lower edge of b + 1.
+	 */
+	private int find(int axis, double value) {
+		int index = Arrays.binarySearch(edges[axis], value);
+		return index >= 0 ? index + 1 : -index - 1;
+	}
+
+	/**
+	 * Returns the number of rows.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of values in each row.
+	 *
+	 * @return
+	 */
+	public int dataSize() {
+		return dataSize;
+	}
+
+	/**
+	 * Returns the bin of the row along the axis.
+	 *
+	 * @param row
+	 * @param axis
+	 * @return
+	 */
+	public int bin(int row, int axis) {
+		return bins[axis][row] & 0xff;
+	}
+
+	/**
+	 * Returns the bins of all rows along the axis. The array must not be
+	 * modified, and its values must be read as unsigned bytes.
+	 *
+	 * @param axis
+	 * @return
+	 */
+	byte[] bins(int axis) {
+		return bins[axis];
+	}
+
+	/**
+	 * Returns the number of bins along the axis.
+	 *
+	 * @param axis
+	 * @return
+	 */
+	public int binCount(int axis) {
+		return edges[axis].length + 1;
+	}
+
+	/**
+	 * Returns the lower edge of the bin along the axis, which must not be the
+	 * first bin. A value is in this bin or a later one if and only if it is
+	 * not less than the edge.
+	 *
+	 * @param axis
+	 * @param bin
+	 * @return
+	 */
+	public double edge(int axis, int bin) {
+		return edges[axis][bin - 1];
+	}
+
+	/**
+	 * Returns the genre label of the row.
+	 *
+	 * @param row
+	 * @return
+	 */
+	public byte label(int row) {
+		return labels[row];
+	}
+}
@@ -1,74 +1,257 @@
 package classifier.tree;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Random;
+import java.util.stream.IntStream;
 
-import classifier.Entry;
+import classifier.FeatureStore;
 import classifier.SongClassifier;
+import classifier.TrainingSet;
 import main.Genre;
-import numeric.Plurality;
 
 /**
  * A classifier which bases its decisions on a plurality vote of randomized
  * decision trees. It creates a set of N trees, each trained on a subset of the
  * data, and selects the most likely genre based on votes from each tree.
  *
+ * The trees are trained concurrently on the common fork-join pool. Each tree
+ * draws its subset of the data and its split axes from its own generator,
+ * seeded from a master seed in tree order, so a forest trained with a given
+ * seed is the same regardless of how many threads train it.
+ *
+ * Optionally, the training frames are binned once before the trees are
+ * trained, and the trees find their splits from histograms of the bins instead
+ * of by sorting.
+ *
+ * Once trained, the trees are compiled into a flat forest, which classifies
+ * songs from arrays of nodes rather than by following links between them. The
+ * linked trees are then dropped, and only the shape of each tree is kept.
+ *
+ * When the trees are trained on samples of whole songs, the forest remembers
+ * which training songs each tree was trained on, so that its accuracy can be
+ * estimated without cross-validation from the votes of each tree on the songs
+ * it left out of its sample. Trees trained on samples of frames have usually
+ * heard part of every song they would vote on, so no estimate is made for
+ * them.
+ *
  * @author Andrei Purcarus
  *
  */
 public class DecisionForestClassifier implements SongClassifier {
 	private int numTrees;
-	private List<Entry> entries = new ArrayList<>();
-	private List<DecisionTree> trees = null;
-	private Random rng = new Random();
+	private TrainingSet songs = new TrainingSet();
+	private FlatForest forest = null;
+	// The training songs each tree was trained on, by their index among the
+	// training songs, when the trees are trained on samples of songs.
+	private BitSet[] bags = null;
+	private double outOfBagAccuracy = Double.NaN;
+	private Random rng;
+	private boolean histograms = false;
+	private TreeLimits limits = TreeLimits.NONE;
+	private boolean sampleSongs = false;
 
 	public DecisionForestClassifier(int numTrees) {
+		this(numTrees, new Random().nextLong());
+	}
+
+	/**
+	 * Creates a forest whose trees are seeded from the given master seed, so
+	 * that it is trained the same way every time.
+	 *
+	 * @param numTrees
+	 * @param seed
+	 */
+	public DecisionForestClassifier(int numTrees, long seed) {
 		this.numTrees = numTrees;
+		rng = new Random(seed);
+	}
+
+	/**
+	 * Creates a forest whose trees are seeded from the given master seed, and
+	 * which are trained on binned frames if histograms is true.
+	 *
+	 * @param numTrees
+	 * @param seed
+	 * @param histograms
+	 */
+	public DecisionForestClassifier(int numTrees, long seed, boolean histograms) {
+		this(numTrees, seed);
+		this.histograms = histograms;
+	}
+
+	/**
+	 * Creates a forest whose trees are seeded from the given master seed, which
+	 * are trained on binned frames if histograms is true, and whose growth is
+	 * bounded by the given limits.
+	 *
+	 * @param numTrees
+	 * @param seed
+	 * @param histograms
+	 * @param limits
+	 */
+	public DecisionForestClassifier(int numTrees, long seed, boolean histograms, TreeLimits limits) {
+		this(numTrees, seed, histograms);
+		this.limits = limits;
+	}
+
+	/**
+	 * Creates a forest as above, whose trees are trained on samples of whole
+	 * songs rather than of frames if sampleSongs is true.
+	 *
+	 * @param numTrees
+	 * @param seed
+	 * @param histograms
+	 * @param limits
+	 * @param sampleSongs
+	 */
+	public DecisionForestClassifier(int numTrees, long seed, boolean histograms, TreeLimits limits,
+			boolean sampleSongs) {
+		this(numTrees, seed, histograms, limits);
+		this.sampleSongs = sampleSongs;
 	}
 
 	@Override
 	public void add(List<double[]> song, Genre genre) {
-		for (double[] feature : song) {
-			entries.add(new Entry(feature, genre));
-		}
+		songs.add(song, genre);
+	}
+
+	@Override
+	public void add(FeatureStore store, int song) {
+		songs.add(store, song);
 	}
 
 	@Override
 	public void train() {
-		trees = new ArrayList<>();
-		int subsetSize = 2 * entries.size() / 3;
+		int[] frames = songs.frames();
+		int[] ids = songs.songs();
+		// The first row of each song, followed by the number of rows.
+		int[] songRows = new int[ids.length + 1];
+		for (int i = 0; i < ids.length; ++i) {
+			songRows[i + 1] = songRows[i] + songs.store().end(ids[i]) - songs.store().begin(ids[i]);
+		}
+		int subsetSize = 2 * (sampleSongs ? ids.length : frames.length) / 3;
+		// Draws the seeds of the trees up front, in order, so that they do
+		// not depend on the order in which the trees are trained.
+		long[] seeds = new long[numTrees];
 		for (int i = 0; i < numTrees; ++i) {
-			// Sample a random subset of the data with replacement.
-			List<Entry> data = new ArrayList<>();
+			seeds[i] = rng.nextLong();
+		}
+		BinnedFrames binned = histograms ? new BinnedFrames(songs.store(), frames) : null;
+		DecisionTree[] result = new DecisionTree[numTrees];
+		bags = sampleSongs ? new BitSet[numTrees] : null;
+		outOfBagAccuracy = Double.NaN;
+		IntStream.range(0, numTrees).parallel().forEach(i -> {
+			// Sample a random subset of the frames or songs with replacement,
+			// keeping each frame drawn once along with the number of times it
+			// was drawn. Frames are referred to by their row in the training
+			// set rather than their frame id, so the counts serve as the
+			// weights and take no more room than the training set.
+			Random rng = new Random(seeds[i]);
+			int[] counts = new int[frames.length];
+			BitSet bag = sampleSongs ? new BitSet(ids.length) : null;
 			for (int j = 0; j < subsetSize; ++j) {
-				int index = rng.nextInt(entries.size());
-				data.add(entries.get(index));
+				if (sampleSongs) {
+					int song = rng.nextInt(ids.length);
+					bag.set(song);
+					for (int row = songRows[song]; row < songRows[song + 1]; ++row) {
+						++counts[row];
+					}
+				} else {
+					++counts[rng.nextInt(frames.length)];
+				}
+			}
+			int distinct = 0;
+			for (int count : counts) {
+				if (count != 0) {
+					++distinct;
+				}
+			}
+			int[] data = new int[distinct];
+			int index = 0;
+			for (int row = 0; row < frames.length; ++row) {
+				if (counts[row] != 0) {
+					data[index++] = row;
+				}
 			}
-			trees.add(new DecisionTree(data));
+			if (sampleSongs) {
+				bags[i] = bag;
+			}
+			result[i] = binned != null ? new DecisionTree(binned, data, counts, rng.nextLong(), limits)
+					: new DecisionTree(songs.store(), frames, data, counts, rng.nextLong(), limits);
+		});
+		forest = new FlatForest(Arrays.asList(result));
+	}
+
+	/**
+	 * Returns the shapes of the trees of the forest, which must have been
+	 * trained.
+	 *
+	 * @return
+	 */
+	public List<TreeStats> trees() {
+		return forest.stats();
+	}
+
+	/**
+	 * Returns the out-of-bag accuracy of the forest, which must have been
+	 * trained on samples of songs: the fraction of the training songs it
+	 * classifies correctly when each tree only votes on the songs it was not
+	 * trained on. Songs which were in every sample are left out. The accuracy
+	 * is computed the first time it is asked for.
+	 *
+	 * Samples drawn by frame would leave each tree voting on songs it has
+	 * heard part of, which gives an estimate far above the accuracy on songs
+	 * the forest has never seen, so such forests have no out-of-bag accuracy.
+	 *
+	 * @return
+	 */
+	public double outOfBagAccuracy() {
+		if (!sampleSongs) {
+			throw new Error("out-of-bag accuracy requires trees trained on samples of songs");
+		}
+		if (Double.isNaN(outOfBagAccuracy)) {
+			FeatureStore store = songs.store();
+			int[] ids = songs.songs();
+			Genre[] result = new Genre[ids.length];
+			IntStream.range(0, ids.length).parallel()
+					.forEach(i -> result[i] = forest.classifyOutOfBag(store, ids[i], bags, i));
+			int total = 0;
+			int correct = 0;
+			for (int i = 0; i < ids.length; ++i) {
+				if (result[i] != null) {
+					++total;
+					if (result[i] == store.genre(ids[i])) {
+						++correct;
+					}
+				}
+			}
+			if (total == 0) {
+				throw new Error("every training song was in the sample of every tree");
+			}
+			outOfBagAccuracy = (double) correct / total;
 		}
+		return outOfBagAccuracy;
 	}
 
 	@Override
 	public Genre classify(List<double[]> song) {
-		Plurality<Genre> plurality = new Plurality<>();
-		for (DecisionTree tree : trees) {
-			plurality.add(classify(tree, song));
-		}
-		return plurality.vote();
+		return forest.classify(song);
 	}
 
-	private Genre classify(DecisionTree tree, List<double[]> song) {
-		Plurality<Genre> plurality = new Plurality<>();
-		for (double[] feature : song) {
-			plurality.add(tree.classify(feature));
-		}
-		return plurality.vote();
+	@Override
+	public Genre[] classifyAll(FeatureStore store, int[] songs) {
+		Genre[] result = new Genre[songs.length];
+		IntStream.range(0, songs.length).parallel().forEach(i -> result[i] = forest.classify(store, songs[i]));
+		return result;
 	}
 
 	@Override
 	public void clear() {
-		entries = new ArrayList<>();
-		trees = null;
+		songs.clear();
+		forest = null;
+		bags = null;
+		outOfBagAccuracy = Double.NaN;
 	}
 }
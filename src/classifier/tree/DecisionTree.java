@@ -1,15 +1,13 @@
 package classifier.tree;
 
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Random;
 
-import classifier.Entry;
+import classifier.FeatureStore;
 import main.Genre;
 import main.Song;
-import numeric.Plurality;
+import numeric.IndexSort;
 
 /**
  * A decision tree meant to be used in a randomized decision forest setting. It
@@ -18,22 +16,35 @@ import numeric.Plurality;
  * to each leaf of the tree. To classify a new feature, it uses the splits in
  * the tree to reach a leaf node and assigns it that genre.
  * 
+ * A tree can also be trained on binned frames, in which case it only splits
+ * at the edges of the bins. The best split of a large node is then found from
+ * histograms of the genres of its frames in each bin of each axis rather than
+ * by sorting the frames along each candidate axis. Only the smaller child of a
+ * node has its histograms built from its frames; those of the larger child
+ * are the difference between those of its parent and its sibling. Small nodes,
+ * with fewer frames than there are bins, are cheaper to split by sorting their
+ * frames on their bins.
+ * 
+ * The training data is given as an array of distinct frame ids, or rows of
+ * binned frames, along with the weight of each, which is the number of times
+ * it was drawn into the sample of the tree. A frame of weight w counts as w
+ * copies of itself, without the copies having to be sorted.
+ * 
+ * The growth of a tree can be bounded by TreeLimits.
+ * 
  * @author Andrei Purcarus
  *
  */
 public class DecisionTree {
 	private static final Genre[] GENRES = Genre.class.getEnumConstants();
-	private static final Map<Genre, Integer> GENRE_INDICES = new HashMap<>();
-	static {
-		for (int i = 0; i < GENRES.length; ++i) {
-			GENRE_INDICES.put(GENRES[i], i);
-		}
-	}
 
 	// Uses a random subset of the features in each tree to minimize the bias
 	// towards features with a strong correlation to the data.
 	private static final int FEATURES = (int) (2 * Math.sqrt(Song.FEATURES));
 
+	// Nodes with fewer frames than this are split without histograms.
+	private static final int HISTOGRAM_SIZE = BinnedFrames.BINS;
+
 	private static class Node {
 		// Internal node parameters.
 		Node left = null, right = null;
@@ -52,73 +63,539 @@ public class DecisionTree {
 		}
 	}
 
+	/**
+	 * The best split of a range of the training data.
+	 */
+	private static class Split {
+		final int begin, end, depth;
+		final int axis;
+		final double metric;
+		// The frames below the split are those before this index.
+		final int index;
+		// The information gained over all the frames in the range.
+		final double gain;
+		// The leaf to turn into this split when growing best first.
+		Node node = null;
+
+		Split(int begin, int end, int depth, int axis, double metric, int index, double gain) {
+			this.begin = begin;
+			this.end = end;
+			this.depth = depth;
+			this.axis = axis;
+			this.metric = metric;
+			this.index = index;
+			this.gain = gain;
+		}
+	}
+
 	private Node root;
-	private Entry[] entries;
-	private Random rng = new Random();
+	private FeatureStore store;
+	private BinnedFrames binned;
+	// The frame ids of the training data, or its rows if it is binned or if
+	// its frame ids are given by row.
+	private int[] frames;
+	// The frame id of each row of the training data, or null if it is binned
+	// or given by frame id.
+	private int[] ids;
+	// The weight of each frame id or row, or null if all weights are 1.
+	private int[] weights;
+	private double[] keys;
+	private Random rng;
+	private TreeLimits limits;
+
+	/**
+	 * Trains a decision tree on the given frames of the store. The frames may
+	 * contain duplicates.
+	 * 
+	 * @param store
+	 * @param frames
+	 */
+	public DecisionTree(FeatureStore store, int[] frames) {
+		this(store, frames, new Random().nextLong());
+	}
+
+	/**
+	 * Trains a decision tree on the given frames of the store, choosing the
+	 * axes to split on with a generator seeded by the given seed. The same
+	 * frames and seed always give the same tree.
+	 * 
+	 * @param store
+	 * @param frames
+	 * @param seed
+	 */
+	public DecisionTree(FeatureStore store, int[] frames, long seed) {
+		this(store, frames, null, seed);
+	}
+
+	/**
+	 * Trains a decision tree on the given frames of the store, each of which
+	 * counts as many times as its weight, indexed by frame id. The axes to
+	 * split on are chosen with a generator seeded by the given seed.
+	 * 
+	 * @param store
+	 * @param frames
+	 * @param weights
+	 * @param seed
+	 */
+	public DecisionTree(FeatureStore store, int[] frames, int[] weights, long seed) {
+		this(store, frames, weights, seed, TreeLimits.NONE);
+	}
+
+	/**
+	 * Trains a decision tree on the given weighted frames of the store, as
+	 * above, whose growth is bounded by the given limits.
+	 * 
+	 * @param store
+	 * @param frames
+	 * @param weights
+	 * @param seed
+	 * @param limits
+	 */
+	public DecisionTree(FeatureStore store, int[] frames, int[] weights, long seed, TreeLimits limits) {
+		this(store, null, frames, weights, seed, limits);
+	}
+
+	/**
+	 * Trains a decision tree on the given rows of a training set whose row r is
+	 * the frame of the store with id ids[r], each of which counts as many times
+	 * as its weight, indexed by row. The rows may contain duplicates. Indexing
+	 * the weights by row keeps them as small as the training set rather than
+	 * the store. The axes to split on are chosen with a generator seeded by the
+	 * given seed, and the growth of the tree is bounded by the given limits.
+	 * 
+	 * @param store
+	 * @param ids
+	 * @param rows
+	 * @param weights
+	 * @param seed
+	 * @param limits
+	 */
+	public DecisionTree(FeatureStore store, int[] ids, int[] rows, int[] weights, long seed, TreeLimits limits) {
+		rng = new Random(seed);
+		this.store = store;
+		this.ids = ids;
+		frames = rows.clone();
+		this.weights = weights;
+		this.limits = limits;
+		keys = new double[rows.length];
+		root = limits.maxLeaves() < Integer.MAX_VALUE ? grow(rows.length) : create(0, rows.length, 0);
+		// The training data is no longer needed once the tree is built.
+		this.store = null;
+		this.ids = null;
+		frames = null;
+		this.weights = null;
+		keys = null;
+		rng = null;
+		this.limits = null;
+	}
+
+	/**
+	 * Trains a decision tree on the given rows of the binned frames, choosing
+	 * the axes to split on with a generator seeded by the given seed. The rows
+	 * may contain duplicates.
+	 * 
+	 * @param binned
+	 * @param rows
+	 * @param seed
+	 */
+	public DecisionTree(BinnedFrames binned, int[] rows, long seed) {
+		this(binned, rows, null, seed);
+	}
 
-	public DecisionTree(List<Entry> entries) {
-		this.entries = entries.toArray(new Entry[entries.size()]);
-		root = create(0, entries.size(), 0);
+	/**
+	 * Trains a decision tree on the given rows of the binned frames, each of
+	 * which counts as many times as its weight, indexed by row. The axes to
+	 * split on are chosen with a generator seeded by the given seed.
+	 * 
+	 * @param binned
+	 * @param rows
+	 * @param weights
+	 * @param seed
+	 */
+	public DecisionTree(BinnedFrames binned, int[] rows, int[] weights, long seed) {
+		this(binned, rows, weights, seed, TreeLimits.NONE);
+	}
+
+	/**
+	 * Trains a decision tree on the given weighted rows of the binned frames,
+	 * as above, whose growth is bounded by the given limits.
+	 * 
+	 * @param binned
+	 * @param rows
+	 * @param weights
+	 * @param seed
+	 * @param limits
+	 */
+	public DecisionTree(BinnedFrames binned, int[] rows, int[] weights, long seed, TreeLimits limits) {
+		rng = new Random(seed);
+		this.binned = binned;
+		frames = rows.clone();
+		this.weights = weights;
+		this.limits = limits;
+		keys = new double[rows.length];
+		if (limits.maxLeaves() < Integer.MAX_VALUE) {
+			root = grow(rows.length);
+		} else {
+			int[] histogram = rows.length >= HISTOGRAM_SIZE ? histogram(0, rows.length) : null;
+			root = create(0, rows.length, 0, histogram);
+		}
+		// The training data is no longer needed once the tree is built.
+		this.binned = null;
+		frames = null;
+		this.weights = null;
+		keys = null;
+		rng = null;
+		this.limits = null;
 	}
 
 	private Node create(int begin, int end, int depth) {
-		if (isLeaf(begin, end, depth)) {
+		Split split = findSplit(begin, end, depth);
+		if (split == null) {
 			return new Node(plurality(begin, end));
 		}
 
+		Node node = new Node();
+		node.axis = split.axis;
+		node.metric = split.metric;
+		node.left = create(begin, split.index, depth + 1);
+		node.right = create(split.index, end, depth + 1);
+		return node;
+	}
+
+	/**
+	 * Finds the best split of the frames in the range, or returns null if the
+	 * range should be a leaf. The frames are left sorted along the axis of the
+	 * split, so that those below the split come before its index.
+	 */
+	private Split findSplit(int begin, int end, int depth) {
+		if (isLeaf(begin, end, depth)) {
+			return null;
+		}
+
 		// Splits the data on the best axis to minimize the entropy.
 		int axis = split(begin, end);
-		Arrays.sort(entries, begin, end, (lhs, rhs) -> Double.compare(lhs.feature[axis], rhs.feature[axis]));
+		sort(begin, end, axis);
 		double minEntropy = Double.MAX_VALUE;
 		int splitIndex = (begin + end) / 2;
 		int[] lessCounts = new int[GENRES.length];
 		int[] greaterCounts = new int[GENRES.length];
+		int lessSize = 0;
+		int greaterSize = 0;
 		for (int i = begin; i < end; ++i) {
-			++greaterCounts[GENRE_INDICES.get(entries[i].genre)];
+			greaterCounts[label(i)] += weight(i);
+			greaterSize += weight(i);
 		}
 
-		double parentEntropy = entropy(begin, end, greaterCounts);
+		double parentEntropy = entropy(greaterSize, greaterCounts);
+		int size = greaterSize;
 
 		for (int i = begin; i < end; ++i) {
-			double entropy = entropy(begin, i, end, lessCounts, greaterCounts);
-			if (entropy < minEntropy) {
-				minEntropy = entropy;
-				splitIndex = i;
+			if (isSplit(lessSize, greaterSize)) {
+				double entropy = entropy(lessSize, greaterSize, lessCounts, greaterCounts);
+				if (entropy < minEntropy) {
+					minEntropy = entropy;
+					splitIndex = i;
+				}
 			}
 
-			int genreIndex = GENRE_INDICES.get(entries[i].genre);
-			--greaterCounts[genreIndex];
-			++lessCounts[genreIndex];
+			int genreIndex = label(i);
+			int weight = weight(i);
+			greaterCounts[genreIndex] -= weight;
+			lessCounts[genreIndex] += weight;
+			greaterSize -= weight;
+			lessSize += weight;
 		}
 
-		// If there is no information to gain, we create a leaf node.
+		// If there is not enough information to gain, we create a leaf node.
 		double informationGain = parentEntropy - minEntropy;
-		if (informationGain <= 0) {
+		if (informationGain <= limits.minGain()) {
+			return null;
+		}
+		return new Split(begin, end, depth, axis, keys[splitIndex], splitIndex, informationGain * size);
+	}
+
+	/**
+	 * Builds the subtree over the rows in the range of the binned frames. The
+	 * histogram of the range is given if the range has at least
+	 * HISTOGRAM_SIZE rows, and is otherwise null. It is overwritten.
+	 */
+	private Node create(int begin, int end, int depth, int[] histogram) {
+		Split split = findSplit(begin, end, depth, histogram);
+		if (split == null) {
 			return new Node(plurality(begin, end));
 		}
+		int splitIndex = split.index;
+
+		// Builds the histogram of the smaller child, and gets the histogram of
+		// the larger child by subtracting it from the parent's.
+		int[] lessHistogram = null;
+		int[] greaterHistogram = null;
+		if (histogram != null && Math.max(splitIndex - begin, end - splitIndex) >= HISTOGRAM_SIZE) {
+			boolean lessIsSmaller = splitIndex - begin < end - splitIndex;
+			int[] smaller = lessIsSmaller ? histogram(begin, splitIndex) : histogram(splitIndex, end);
+			for (int i = 0; i < histogram.length; ++i) {
+				histogram[i] -= smaller[i];
+			}
+			lessHistogram = lessIsSmaller ? smaller : histogram;
+			greaterHistogram = lessIsSmaller ? histogram : smaller;
+			if (splitIndex - begin < HISTOGRAM_SIZE) {
+				lessHistogram = null;
+			}
+			if (end - splitIndex < HISTOGRAM_SIZE) {
+				greaterHistogram = null;
+			}
+		}
 
 		Node node = new Node();
-		node.axis = axis;
-		node.metric = entries[splitIndex].feature[axis];
-		node.left = create(begin, splitIndex, depth + 1);
-		node.right = create(splitIndex, end, depth + 1);
+		node.axis = split.axis;
+		node.metric = split.metric;
+		node.left = create(begin, splitIndex, depth + 1, lessHistogram);
+		node.right = create(splitIndex, end, depth + 1, greaterHistogram);
 		return node;
 	}
 
+	/**
+	 * Finds the best split of the rows in the range of the binned frames, or
+	 * returns null if the range should be a leaf. The histogram of the range
+	 * is given if the range has at least HISTOGRAM_SIZE rows, and is otherwise
+	 * null. The rows below the split are moved before its index.
+	 */
+	private Split findSplit(int begin, int end, int depth, int[] histogram) {
+		if (isLeaf(begin, end, depth)) {
+			return null;
+		}
+
+		int[] counts = new int[GENRES.length];
+		int size = 0;
+		for (int i = begin; i < end; ++i) {
+			counts[label(i)] += weight(i);
+			size += weight(i);
+		}
+		double parentEntropy = entropy(size, counts);
+
+		// Finds the bin of the candidate axes at which to split to minimize
+		// the entropy. The rows in lower bins go to the left.
+		int bestAxis = -1;
+		int bestBin = 0;
+		double minEntropy = Double.MAX_VALUE;
+		int[] lessCounts = new int[GENRES.length];
+		int[] greaterCounts = new int[GENRES.length];
+		for (int c = 0; c < FEATURES; ++c) {
+			int axis = rng.nextInt(Song.FEATURES);
+			Arrays.fill(lessCounts, 0);
+			int lessSize = 0;
+			if (histogram != null) {
+				int binCount = binned.binCount(axis);
+				// Only splits below non-empty bins, as when the rows are
+				// sorted.
+				int offset = axis * BinnedFrames.BINS * GENRES.length;
+				for (int bin = 0; bin < binCount; ++bin, offset += GENRES.length) {
+					int binSize = 0;
+					for (int genre = 0; genre < GENRES.length; ++genre) {
+						binSize += histogram[offset + genre];
+					}
+					if (binSize == 0) {
+						continue;
+					}
+					if (isSplit(lessSize, size - lessSize)) {
+						double entropy = entropy(counts, lessCounts, greaterCounts, lessSize, size);
+						if (entropy < minEntropy) {
+							minEntropy = entropy;
+							bestAxis = axis;
+							bestBin = bin;
+						}
+					}
+					for (int genre = 0; genre < GENRES.length; ++genre) {
+						lessCounts[genre] += histogram[offset + genre];
+					}
+					lessSize += binSize;
+				}
+			} else {
+				sortBins(begin, end, axis);
+				for (int i = begin + 1; i < end; ++i) {
+					lessCounts[label(i - 1)] += weight(i - 1);
+					lessSize += weight(i - 1);
+					if (keys[i] == keys[i - 1] || !isSplit(lessSize, size - lessSize)) {
+						continue;
+					}
+					double entropy = entropy(counts, lessCounts, greaterCounts, lessSize, size);
+					if (entropy < minEntropy) {
+						minEntropy = entropy;
+						bestAxis = axis;
+						bestBin = (int) keys[i];
+					}
+				}
+			}
+		}
+
+		// If there is not enough information to gain, we create a leaf node.
+		if (bestAxis < 0 || parentEntropy - minEntropy <= limits.minGain()) {
+			return null;
+		}
+
+		// Moves the rows in lower bins to the front of the range.
+		byte[] bins = binned.bins(bestAxis);
+		int splitIndex = begin;
+		for (int i = begin; i < end; ++i) {
+			if ((bins[frames[i]] & 0xff) < bestBin) {
+				int row = frames[i];
+				frames[i] = frames[splitIndex];
+				frames[splitIndex++] = row;
+			}
+		}
+		return new Split(begin, end, depth, bestAxis, binned.edge(bestAxis, bestBin), splitIndex,
+				(parentEntropy - minEntropy) * size);
+	}
+
+	/**
+	 * Builds the tree over the whole training data, best first: of the leaves
+	 * which could be split, the one whose split gains the most information
+	 * over all its frames is split next, until the tree has as many leaves as
+	 * it is allowed. The histograms of binned rows are built for each node
+	 * rather than subtracted, since the nodes are not split in order.
+	 */
+	private Node grow(int size) {
+		PriorityQueue<Split> queue = new PriorityQueue<>((lhs, rhs) -> Double.compare(rhs.gain, lhs.gain));
+		Node root = leaf(0, size, 0, queue);
+		for (int leaves = 1; leaves < limits.maxLeaves() && !queue.isEmpty(); ++leaves) {
+			Split split = queue.poll();
+			Node node = split.node;
+			node.genre = null;
+			node.axis = split.axis;
+			node.metric = split.metric;
+			node.left = leaf(split.begin, split.index, split.depth + 1, queue);
+			node.right = leaf(split.index, split.end, split.depth + 1, queue);
+		}
+		return root;
+	}
+
+	/**
+	 * Creates a leaf over the range and queues its best split, if it has one.
+	 */
+	private Node leaf(int begin, int end, int depth, PriorityQueue<Split> queue) {
+		Node node = new Node(plurality(begin, end));
+		Split split;
+		if (binned != null) {
+			split = findSplit(begin, end, depth, end - begin >= HISTOGRAM_SIZE ? histogram(begin, end) : null);
+		} else {
+			split = findSplit(begin, end, depth);
+		}
+		if (split != null) {
+			split.node = node;
+			queue.add(split);
+		}
+		return node;
+	}
+
+	/**
+	 * Returns the weight of the rows of each genre in each bin of each axis
+	 * over the range, indexed by (axis * BINS + bin) * genres + genre.
+	 */
+	private int[] histogram(int begin, int end) {
+		int[] result = new int[binned.dataSize() * BinnedFrames.BINS * GENRES.length];
+		for (int axis = 0; axis < binned.dataSize(); ++axis) {
+			byte[] bins = binned.bins(axis);
+			int offset = axis * BinnedFrames.BINS;
+			for (int i = begin; i < end; ++i) {
+				result[(offset + (bins[frames[i]] & 0xff)) * GENRES.length + label(i)] += weight(i);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Sorts the rows in the range by their bins along the given axis, leaving
+	 * their bins in keys.
+	 */
+	private void sortBins(int begin, int end, int axis) {
+		byte[] bins = binned.bins(axis);
+		for (int i = begin; i < end; ++i) {
+			keys[i] = bins[frames[i]] & 0xff;
+		}
+		IndexSort.sort(keys, frames, begin, end);
+	}
+
+	/**
+	 * Computes the entropy of a split of a range of the given size, with the
+	 * given counts, into a lower part with the given counts and size and an
+	 * upper part with the rest. The counts of the upper part are written to
+	 * greaterCounts.
+	 */
+	private double entropy(int[] counts, int[] lessCounts, int[] greaterCounts, int lessSize, int size) {
+		for (int genre = 0; genre < GENRES.length; ++genre) {
+			greaterCounts[genre] = counts[genre] - lessCounts[genre];
+		}
+		return entropy(lessSize, size - lessSize, lessCounts, greaterCounts);
+	}
+
+	/**
+	 * Returns the genre label of the training frame at the given index.
+	 */
+	private byte label(int index) {
+		return binned != null ? binned.label(frames[index]) : store.label(frame(index));
+	}
+
+	/**
+	 * Returns the frame id of the unbinned training frame at the given index.
+	 */
+	private int frame(int index) {
+		return ids == null ? frames[index] : ids[frames[index]];
+	}
+
+	/**
+	 * Returns the weight of the training frame at the given index.
+	 */
+	private int weight(int index) {
+		return weights == null ? 1 : weights[frames[index]];
+	}
+
+	/**
+	 * Returns true if a split with the given sizes on each side leaves enough
+	 * frames on both.
+	 */
+	private boolean isSplit(int lessSize, int greaterSize) {
+		return lessSize >= limits.minLeafSize() && greaterSize >= limits.minLeafSize();
+	}
+
 	private boolean isLeaf(int begin, int end, int depth) {
-		return begin + Song.FEATURES >= end || uniformGenre(begin, end);
+		if (depth >= limits.maxDepth()) {
+			return true;
+		}
+		if (weights == null) {
+			return begin + Song.FEATURES >= end || uniformGenre(begin, end);
+		}
+		int size = 0;
+		for (int i = begin; i < end; ++i) {
+			size += weights[frames[i]];
+		}
+		return size <= Song.FEATURES || uniformGenre(begin, end);
 	}
 
 	private boolean uniformGenre(int begin, int end) {
-		Entry entry = entries[begin];
+		byte genre = label(begin);
 		for (int i = begin; i < end; ++i) {
-			if (!entry.genre.equals(entries[i].genre)) {
+			if (label(i) != genre) {
 				return false;
 			}
 		}
 		return true;
 	}
 
+	/**
+	 * Sorts the frames in the range along the given axis, leaving their values
+	 * on that axis in keys.
+	 * 
+	 * @param begin
+	 * @param end
+	 * @param axis
+	 */
+	private void sort(int begin, int end, int axis) {
+		for (int i = begin; i < end; ++i) {
+			keys[i] = store.get(frame(i), axis);
+		}
+		IndexSort.sort(keys, frames, begin, end);
+	}
+
 	/**
 	 * Returns the axis with the split that minimizes the entropy.
 	 * 
@@ -152,23 +629,31 @@ public class DecisionTree {
 	 * @return
 	 */
 	private double split(int begin, int end, int axis) {
-		Arrays.sort(entries, begin, end, (lhs, rhs) -> Double.compare(lhs.feature[axis], rhs.feature[axis]));
+		sort(begin, end, axis);
 		double minEntropy = Double.MAX_VALUE;
 		int[] lessCounts = new int[GENRES.length];
 		int[] greaterCounts = new int[GENRES.length];
+		int lessSize = 0;
+		int greaterSize = 0;
 		for (int i = begin; i < end; ++i) {
-			++greaterCounts[GENRE_INDICES.get(entries[i].genre)];
+			greaterCounts[label(i)] += weight(i);
+			greaterSize += weight(i);
 		}
 
 		for (int i = begin; i < end; ++i) {
-			double entropy = entropy(begin, i, end, lessCounts, greaterCounts);
-			if (entropy < minEntropy) {
-				minEntropy = entropy;
+			if (isSplit(lessSize, greaterSize)) {
+				double entropy = entropy(lessSize, greaterSize, lessCounts, greaterCounts);
+				if (entropy < minEntropy) {
+					minEntropy = entropy;
+				}
 			}
 
-			int genreIndex = GENRE_INDICES.get(entries[i].genre);
-			--greaterCounts[genreIndex];
-			++lessCounts[genreIndex];
+			int genreIndex = label(i);
+			int weight = weight(i);
+			greaterCounts[genreIndex] -= weight;
+			lessCounts[genreIndex] += weight;
+			greaterSize -= weight;
+			lessSize += weight;
 		}
 		return minEntropy;
 	}
@@ -176,41 +661,37 @@ public class DecisionTree {
 	/**
 	 * Computes the entropy of the given split.
 	 * 
-	 * @param begin
-	 * @param splitIndex
-	 * @param end
+	 * @param lessSize
+	 * @param greaterSize
 	 * @param lessCounts
 	 * @param greaterCounts
 	 * @return
 	 */
-	private double entropy(int begin, int splitIndex, int end, int[] lessCounts, int[] greaterCounts) {
-		double totalSize = end - begin;
-		double lessSize = splitIndex - begin;
-		double greaterSize = end - splitIndex;
+	private double entropy(int lessSize, int greaterSize, int[] lessCounts, int[] greaterCounts) {
+		double totalSize = lessSize + greaterSize;
 		if (lessSize == 0) {
-			return entropy(splitIndex, end, greaterCounts);
+			return entropy(greaterSize, greaterCounts);
 		} else if (greaterSize == 0) {
-			return entropy(begin, splitIndex, lessCounts);
+			return entropy(lessSize, lessCounts);
 		} else {
-			return (lessSize / totalSize) * entropy(begin, splitIndex, lessCounts)
-					+ (greaterSize / totalSize) * entropy(splitIndex, end, greaterCounts);
+			return (lessSize / totalSize) * entropy(lessSize, lessCounts)
+					+ (greaterSize / totalSize) * entropy(greaterSize, greaterCounts);
 		}
 	}
 
 	/**
-	 * Computes the entropy of the given range.
+	 * Computes the entropy of a set of the given size with the given counts.
 	 * 
-	 * @param begin
-	 * @param end
+	 * @param size
 	 * @param counts
 	 * @return
 	 */
-	private double entropy(int begin, int end, int[] counts) {
+	private double entropy(int size, int[] counts) {
 		double result = 0;
 		for (int i = 0; i < GENRES.length; ++i) {
 			int count = counts[i];
 			if (count != 0) {
-				double p = (double) (count) / (end - begin);
+				double p = (double) (count) / size;
 				result -= p * Math.log(p);
 			}
 		}
@@ -229,11 +710,105 @@ public class DecisionTree {
 		return node.genre;
 	}
 
+	/**
+	 * Returns the number of nodes in the tree.
+	 * 
+	 * @return
+	 */
+	public int size() {
+		return size(root);
+	}
+
+	/**
+	 * Returns the number of leaves in the tree.
+	 * 
+	 * @return
+	 */
+	public int leaves() {
+		return (size() + 1) / 2;
+	}
+
+	/**
+	 * Returns the depth of the deepest leaf of the tree. A tree with a single
+	 * leaf has a depth of 0.
+	 * 
+	 * @return
+	 */
+	public int depth() {
+		return depth(root);
+	}
+
+	private static int depth(Node node) {
+		if (node.left == null || node.right == null) {
+			return 0;
+		}
+		return 1 + Math.max(depth(node.left), depth(node.right));
+	}
+
+	/**
+	 * Returns the number of bytes the tree takes up once it is compiled into a
+	 * flat forest.
+	 * 
+	 * @return
+	 */
+	public long bytes() {
+		return (long) size() * FlatForest.NODE_BYTES;
+	}
+
+	private static int size(Node node) {
+		if (node.left == null || node.right == null) {
+			return 1;
+		}
+		return 1 + size(node.left) + size(node.right);
+	}
+
+	/**
+	 * Writes the nodes of the tree into the given arrays in preorder, starting
+	 * at the given offset, and returns the offset following the last node. The
+	 * left child of an internal node follows it and its right child is at the
+	 * index stored in children. Leaves have an axis of -1 and the ordinal of
+	 * their genre in genres.
+	 * 
+	 * @param axes
+	 * @param metrics
+	 * @param children
+	 * @param genres
+	 * @param offset
+	 * @return
+	 */
+	int flatten(int[] axes, double[] metrics, int[] children, byte[] genres, int offset) {
+		return flatten(root, axes, metrics, children, genres, offset);
+	}
+
+	private static int flatten(Node node, int[] axes, double[] metrics, int[] children, byte[] genres,
+			int offset) {
+		if (node.left == null || node.right == null) {
+			axes[offset] = -1;
+			genres[offset] = (byte) node.genre.ordinal();
+			return offset + 1;
+		}
+		axes[offset] = node.axis;
+		metrics[offset] = node.metric;
+		int right = flatten(node.left, axes, metrics, children, genres, offset + 1);
+		children[offset] = right;
+		return flatten(node.right, axes, metrics, children, genres, right);
+	}
+
+	/**
+	 * Returns the genre with the most weight in the range, or the first such
+	 * genre if there is a tie.
+	 */
 	private Genre plurality(int begin, int end) {
-		Plurality<Genre> plurality = new Plurality<>();
+		int[] counts = new int[GENRES.length];
 		for (int i = begin; i < end; ++i) {
-			plurality.add(entries[i].genre);
+			counts[label(i)] += weight(i);
+		}
+		int result = 0;
+		for (int genre = 1; genre < GENRES.length; ++genre) {
+			if (counts[genre] > counts[result]) {
+				result = genre;
+			}
 		}
-		return plurality.vote();
+		return GENRES[result];
 	}
 }
@@ -0,0 +1,209 @@
+package classifier.tree;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import classifier.FeatureStore;
+import main.Genre;
+
+/**
+ * The trees of a trained forest compiled into flat arrays for classification.
+ * The nodes of all the trees are stored one tree after the other, each in
+ * preorder, so the left child of an internal node is the next node and only
+ * the index of its right child needs to be stored. A leaf has an axis of -1
+ * and keeps the ordinal of its genre.
+ *
+ * A song is classified by running all its frames down one tree before moving
+ * on to the next, so that the part of the tree its frames visit stays in the
+ * cache; successive frames of a song tend to take the same paths. Each tree
+ * counts the genres of the leaves its frames reach and then casts its own vote
+ * for the genre it saw the most. The frames and counts are kept in arrays
+ * reused by each thread, so classifying a song from a store allocates nothing
+ * once the arrays are large enough.
+ *
+ * Ties are broken in favour of the first genre, as with plurality votes, so
+ * the flat forest classifies songs exactly as its trees do.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+class FlatForest {
+	private static final Genre[] GENRES = Genre.class.getEnumConstants();
+
+	/**
+	 * The number of bytes taken up by each node: its axis, threshold, right
+	 * child and genre.
+	 */
+	public static final int NODE_BYTES = Integer.BYTES + Double.BYTES + Integer.BYTES + Byte.BYTES;
+
+	private final int numTrees;
+	private final int[] roots;
+	private final int[] axes;
+	private final double[] metrics;
+	private final int[] children;
+	private final byte[] genres;
+	private final List<TreeStats> stats;
+
+	// The number of frames of each genre seen by each tree, followed by the
+	// number of votes for each genre.
+	private final ThreadLocal<int[]> counts;
+	// The frames of the song being classified, one after the other.
+	private final ThreadLocal<double[]> frames = new ThreadLocal<>();
+
+	/**
+	 * Compiles the given trees and records their shapes. The trees are not
+	 * referred to afterwards.
+	 *
+	 * @param trees
+	 */
+	public FlatForest(List<DecisionTree> trees) {
+		numTrees = trees.size();
+		roots = new int[numTrees];
+		int size = 0;
+		for (int tree = 0; tree < numTrees; ++tree) {
+			roots[tree] = size;
+			size += trees.get(tree).size();
+		}
+		axes = new int[size];
+		metrics = new double[size];
+		children = new int[size];
+		genres = new byte[size];
+		TreeStats[] stats = new TreeStats[numTrees];
+		for (int tree = 0; tree < numTrees; ++tree) {
+			trees.get(tree).flatten(axes, metrics, children, genres, roots[tree]);
+			stats[tree] = new TreeStats(trees.get(tree));
+		}
+		this.stats = Collections.unmodifiableList(Arrays.asList(stats));
+		counts = ThreadLocal.withInitial(() -> new int[(numTrees + 1) * GENRES.length]);
+	}
+
+	/**
+	 * Returns the number of nodes in all the trees.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return axes.length;
+	}
+
+	/**
+	 * Returns the shapes of the trees, in the order they were compiled.
+	 *
+	 * @return
+	 */
+	public List<TreeStats> stats() {
+		return stats;
+	}
+
+	/**
+	 * Returns the genre chosen by the forest for the song.
+	 *
+	 * @param song
+	 * @return
+	 */
+	public Genre classify(List<double[]> song) {
+		int[] counts = this.counts.get();
+		for (int tree = 0; tree < numTrees; ++tree) {
+			for (double[] feature : song) {
+				++counts[tree * GENRES.length + classify(tree, feature, 0)];
+			}
+		}
+		return vote(counts);
+	}
+
+	/**
+	 * Returns the genre chosen by the forest for the song with the given id in
+	 * the store.
+	 *
+	 * @param store
+	 * @param song
+	 * @return
+	 */
+	public Genre classify(FeatureStore store, int song) {
+		return classify(store, song, null, 0);
+	}
+
+	/**
+	 * Returns the genre chosen by the forest for the song with the given id in
+	 * the store, where only the trees which were not trained on the song vote.
+	 * The song is at the given index among the training songs, and the songs
+	 * each tree was trained on are set in its bag. Returns null if the song was
+	 * in every bag.
+	 *
+	 * @param store
+	 * @param song
+	 * @param bags
+	 * @param index
+	 * @return
+	 */
+	public Genre classifyOutOfBag(FeatureStore store, int song, BitSet[] bags, int index) {
+		return classify(store, song, bags, index);
+	}
+
+	private Genre classify(FeatureStore store, int song, BitSet[] bags, int index) {
+		int[] counts = this.counts.get();
+		int dataSize = store.dataSize();
+		int size = store.end(song) - store.begin(song);
+		double[] frames = this.frames.get();
+		if (frames == null || frames.length < size * dataSize) {
+			frames = new double[size * dataSize];
+			this.frames.set(frames);
+		}
+		for (int i = 0; i < size; ++i) {
+			store.get(store.begin(song) + i, frames, i * dataSize);
+		}
+		for (int tree = 0; tree < numTrees; ++tree) {
+			if (bags != null && bags[tree].get(index)) {
+				continue;
+			}
+			for (int i = 0; i < size; ++i) {
+				++counts[tree * GENRES.length + classify(tree, frames, i * dataSize)];
+			}
+		}
+		return vote(counts);
+	}
+
+	/**
+	 * Runs the feature starting at the given offset down the tree and returns
+	 * the ordinal of the genre it reaches.
+	 */
+	private int classify(int tree, double[] feature, int offset) {
+		int node = roots[tree];
+		int axis;
+		while ((axis = axes[node]) >= 0) {
+			node = feature[offset + axis] < metrics[node] ? node + 1 : children[node];
+		}
+		return genres[node];
+	}
+
+	/**
+	 * Casts the vote of each tree, returns the genre with the most votes and
+	 * clears the counts for the next song.
+	 */
+	private Genre vote(int[] counts) {
+		int votes = numTrees * GENRES.length;
+		for (int tree = 0; tree < numTrees; ++tree) {
+			int offset = tree * GENRES.length;
+			int best = 0;
+			for (int genre = 1; genre < GENRES.length; ++genre) {
+				if (counts[offset + genre] > counts[offset + best]) {
+					best = genre;
+				}
+			}
+			if (counts[offset + best] != 0) {
+				++counts[votes + best];
+			}
+		}
+		int best = 0;
+		for (int genre = 1; genre < GENRES.length; ++genre) {
+			if (counts[votes + genre] > counts[votes + best]) {
+				best = genre;
+			}
+		}
+		Genre result = counts[votes + best] != 0 ? GENRES[best] : null;
+		Arrays.fill(counts, 0);
+		return result;
+	}
+}
@@ -0,0 +1,103 @@
+package classifier.tree;
+
+/**
+ * Limits on the growth of a decision tree, which bound its size and the time
+ * it takes to classify a frame at the cost of some accuracy. A node becomes a
+ * leaf if it is at the maximum depth, if the tree already has the maximum
+ * number of leaves, or if its best split would leave fewer than the minimum
+ * number of frames on either side or gain no more than the minimum
+ * information, measured in nats. Frames count as many times as their weight.
+ *
+ * A tree with a maximum number of leaves is grown best first, splitting the
+ * leaf with the most information to gain each time, so that it spends its
+ * leaves where they help the most. Other trees are grown depth first.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class TreeLimits {
+	/**
+	 * No limits beyond those every tree has: nodes with no more frames than
+	 * there are features, or with frames of a single genre, are leaves.
+	 */
+	public static final TreeLimits NONE = new TreeLimits(Integer.MAX_VALUE, 1, 0, Integer.MAX_VALUE);
+
+	private final int maxDepth;
+	private final int minLeafSize;
+	private final double minGain;
+	private final int maxLeaves;
+
+	/**
+	 * Creates the given limits. Pass Integer.MAX_VALUE as the maximum depth or
+	 * number of leaves, 1 as the minimum leaf size or 0 as the minimum gain to
+	 * leave that limit out.
+	 *
+	 * @param maxDepth
+	 * @param minLeafSize
+	 * @param minGain
+	 * @param maxLeaves
+	 */
+	public TreeLimits(int maxDepth, int minLeafSize, double minGain, int maxLeaves) {
+		if (maxDepth < 0 || minLeafSize < 1 || minGain < 0 || maxLeaves < 1) {
+			throw new Error("invalid tree limits");
+		}
+		this.maxDepth = maxDepth;
+		this.minLeafSize = minLeafSize;
+		this.minGain = minGain;
+		this.maxLeaves = maxLeaves;
+	}
+
+	/**
+	 * Returns the depth below which no node is split. The root is at depth 0.
+	 *
+	 * @return
+	 */
+	public int maxDepth() {
+		return maxDepth;
+	}
+
+	/**
+	 * Returns the least weight of frames on each side of a split.
+	 *
+	 * @return
+	 */
+	public int minLeafSize() {
+		return minLeafSize;
+	}
+
+	/**
+	 * Returns the information gain a split must exceed.
+	 *
+	 * @return
+	 */
+	public double minGain() {
+		return minGain;
+	}
+
+	/**
+	 * Returns the most leaves a tree can have.
+	 *
+	 * @return
+	 */
+	public int maxLeaves() {
+		return maxLeaves;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder();
+		if (maxDepth != Integer.MAX_VALUE) {
+			result.append("depth <= ").append(maxDepth).append(", ");
+		}
+		if (minLeafSize != 1) {
+			result.append("leaf >= ").append(minLeafSize).append(", ");
+		}
+		if (minGain != 0) {
+			result.append("gain > ").append(minGain).append(", ");
+		}
+		if (maxLeaves != Integer.MAX_VALUE) {
+			result.append("leaves <= ").append(maxLeaves).append(", ");
+		}
+		return result.length() == 0 ? "no limits" : result.substring(0, result.length() - 2);
+	}
+}
@@ -0,0 +1,61 @@
+package classifier.tree;
+
+/**
+ * The shape of a decision tree of a forest, recorded when the tree is
+ * compiled into a flat forest so that it can be reported once the tree itself
+ * is gone.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class TreeStats {
+	private final int size;
+	private final int depth;
+
+	/**
+	 * Records the shape of the given tree.
+	 *
+	 * @param tree
+	 */
+	TreeStats(DecisionTree tree) {
+		size = tree.size();
+		depth = tree.depth();
+	}
+
+	/**
+	 * Returns the number of nodes in the tree.
+	 *
+	 * @return
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of leaves in the tree.
+	 *
+	 * @return
+	 */
+	public int leaves() {
+		return (size + 1) / 2;
+	}
+
+	/**
+	 * Returns the depth of the deepest leaf of the tree. A tree with a single
+	 * leaf has a depth of 0.
+	 *
+	 * @return
+	 */
+	public int depth() {
+		return depth;
+	}
+
+	/**
+	 * Returns the number of bytes the tree takes up in the flat forest.
+	 *
+	 * @return
+	 */
+	public long bytes() {
+		return (long) size * FlatForest.NODE_BYTES;
+	}
+}
@@ -0,0 +1,284 @@
+package io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+
+import classifier.FeatureStore;
+import main.Genre;
+
+/**
+ * Reads and writes sets of songs in a compact binary file that is
+ * memory-mapped so that its frames can be used in place. This avoids parsing
+ * the directories of CSV song files on every run.
+ *
+ * The binary format is little-endian and consists of:
+ * <ul>
+ * <li>a header: the magic number, the format version, the number of values per
+ * frame, the size of each value in bytes, the number of songs, the number of
+ * frames and the byte offset of the frames;</li>
+ * <li>a song index: the id of the first frame and the number of frames of each
+ * song;</li>
+ * <li>a label column: the genre of each song as a byte, or -1 if unknown;</li>
+ * <li>the name of each song as a length-prefixed UTF-8 string;</li>
+ * <li>the frames, one after the other, aligned to 8 bytes.</li>
+ * </ul>
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class Dataset {
+	private static final int MAGIC = 0x5344434d; // "MCDS"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+
+	/**
+	 * Loads the training set. Uses the binary file if it has been created,
+	 * since it can be mapped directly instead of being parsed, and otherwise
+	 * parses the directory of CSV song files.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public static FeatureStore loadTrainingSet() throws IOException {
+		return loadTrainingSet(new DatasetLoader());
+	}
+
+	/**
+	 * Loads the training set as above, parsing the CSV song files with the
+	 * given loader if there is no binary file.
+	 *
+	 * @param loader
+	 * @return
+	 * @throws IOException
+	 */
+	public static FeatureStore loadTrainingSet(DatasetLoader loader) throws IOException {
+		File binary = new File(DatasetConverter.TRAINING_SET);
+		if (binary.exists()) {
+			return map(binary);
+		}
+		return loader.load(new File("./training-set/"), readLabels(new File("labels.csv")));
+	}
+
+	/**
+	 * Loads the unlabelled test set, from its binary file if it has been
+	 * created and otherwise from its directory of CSV song files.
+	 *
+	 * @return
+	 * @throws IOException
+	 */
+	public static FeatureStore loadTestSet() throws IOException {
+		File binary = new File(DatasetConverter.TEST_SET);
+		if (binary.exists()) {
+			return map(binary);
+		}
+		return new DatasetLoader().load(new File("./test-set/"), null);
+	}
+
+	/**
+	 * Copies a random sample of the songs of the store into a new store, drawn
+	 * with a generator seeded by the given seed.
+	 *
+	 * @param store
+	 * @param songCount
+	 * @param seed
+	 * @return
+	 */
+	public static FeatureStore sample(FeatureStore store, int songCount, long seed) {
+		List<Integer> songs = new ArrayList<>();
+		for (int i = 0; i < store.songCount(); ++i) {
+			songs.add(i);
+		}
+		Collections.shuffle(songs, new Random(seed));
+		FeatureStore result = new FeatureStore(store.dataSize());
+		for (int i = 0; i < songCount; ++i) {
+			int song = songs.get(i);
+			result.add(store.name(song), store.song(song), store.genre(song));
+		}
+		return result;
+	}
+
+	/**
+	 * Reads the genre of each song from a CSV file of (name, genre) pairs with
+	 * a title line.
+	 *
+	 * @param file
+	 * @return
+	 * @throws FileNotFoundException
+	 */
+	public static Map<String, Genre> readLabels(File file) throws FileNotFoundException {
+		Map<String, Genre> labels = new HashMap<>();
+		Scanner in = new Scanner(new FileInputStream(file));
+		in.nextLine(); // Skip over titles.
+		while (in.hasNextLine()) {
+			String line = in.nextLine();
+			String[] fields = line.split(",");
+			labels.put(fields[0], Genre.fromString(fields[1]));
+		}
+		in.close();
+		return labels;
+	}
+
+	/**
+	 * Writes the store to a binary file.
+	 *
+	 * @param store
+	 * @param file
+	 * @throws IOException
+	 */
+	public static void write(FeatureStore store, File file) throws IOException {
+		int songCount = store.songCount();
+		int frameCount = store.frameCount();
+		int dataSize = store.dataSize();
+		byte[][] names = new byte[songCount][];
+		int indexSize = 8 * songCount + songCount;
+		for (int song = 0; song < songCount; ++song) {
+			String name = store.name(song);
+			names[song] = (name == null ? "" : name).getBytes(StandardCharsets.UTF_8);
+			if (names[song].length > 0xffff) {
+				throw new Error("song name is too long");
+			}
+			indexSize += 2 + names[song].length;
+		}
+		int dataOffset = align(HEADER_SIZE + indexSize);
+
+		ByteBuffer buffer = ByteBuffer.allocate(dataOffset).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(dataSize);
+		buffer.putInt(Double.BYTES);
+		buffer.putInt(songCount);
+		buffer.putInt(frameCount);
+		buffer.putLong(dataOffset);
+		for (int song = 0; song < songCount; ++song) {
+			buffer.putInt(store.begin(song));
+			buffer.putInt(store.end(song) - store.begin(song));
+		}
+		for (int song = 0; song < songCount; ++song) {
+			Genre genre = store.genre(song);
+			buffer.put(genre == null ? FeatureStore.UNKNOWN : (byte) genre.ordinal());
+		}
+		for (int song = 0; song < songCount; ++song) {
+			buffer.putShort((short) names[song].length);
+			buffer.put(names[song]);
+		}
+
+		RandomAccessFile out = new RandomAccessFile(file, "rw");
+		try {
+			FileChannel channel = out.getChannel();
+			channel.truncate(0);
+			buffer.rewind();
+			write(channel, buffer);
+
+			// Writes the frames in blocks to bound the size of the buffer.
+			ByteBuffer block = ByteBuffer.allocate(4096 * dataSize * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+			for (int frame = 0; frame < frameCount; ++frame) {
+				if (block.remaining() < dataSize * Double.BYTES) {
+					block.flip();
+					write(channel, block);
+					block.clear();
+				}
+				for (int i = 0; i < dataSize; ++i) {
+					block.putDouble(store.get(frame, i));
+				}
+			}
+			block.flip();
+			write(channel, block);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+
+	private static int align(int offset) {
+		return (offset + 7) & ~7;
+	}
+
+	/**
+	 * Memory-maps a binary file written by write into a read-only store. The
+	 * frames are read directly from the mapped file rather than being copied
+	 * onto the heap.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public static FeatureStore map(File file) throws IOException {
+		MappedByteBuffer mapped;
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = in.getChannel();
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new Error("dataset file is too large to map");
+			}
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			// The mapping remains valid after the channel is closed.
+			in.close();
+		}
+
+		ByteBuffer buffer = mapped.order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.getInt() != MAGIC) {
+			throw new Error("not a dataset file: " + file);
+		}
+		if (buffer.getInt() != VERSION) {
+			throw new Error("unsupported dataset version: " + file);
+		}
+		int dataSize = buffer.getInt();
+		int valueSize = buffer.getInt();
+		if (valueSize != Double.BYTES) {
+			throw new Error("unsupported value size: " + valueSize);
+		}
+		int songCount = buffer.getInt();
+		int frameCount = buffer.getInt();
+		int dataOffset = (int) buffer.getLong();
+
+		int[] offsets = new int[songCount + 1];
+		for (int song = 0; song < songCount; ++song) {
+			offsets[song] = buffer.getInt();
+			int size = buffer.getInt();
+			offsets[song + 1] = offsets[song] + size;
+		}
+		if (offsets[songCount] != frameCount) {
+			throw new Error("corrupt dataset index: " + file);
+		}
+		byte[] labels = new byte[songCount];
+		buffer.get(labels);
+		String[] names = new String[songCount];
+		byte[] name = new byte[0xffff];
+		for (int song = 0; song < songCount; ++song) {
+			int length = buffer.getShort() & 0xffff;
+			buffer.get(name, 0, length);
+			names[song] = new String(name, 0, length, StandardCharsets.UTF_8);
+		}
+
+		buffer.position(dataOffset);
+		buffer.limit(dataOffset + frameCount * dataSize * valueSize);
+		DoubleBuffer frames = buffer.slice().order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+		return new FeatureStore(dataSize, frames, names, labels, offsets);
+	}
+
+	private Dataset() {
+
+	}
+}
@@ -0,0 +1,43 @@
+package io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import classifier.FeatureStore;
+import main.Genre;
+
+/**
+ * Converts the CSV training and test sets into binary dataset files which can
+ * be memory-mapped on startup instead of being parsed. This only needs to be
+ * run once, or whenever the CSV files change.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class DatasetConverter {
+	/**
+	 * The binary file holding the training set.
+	 */
+	public static final String TRAINING_SET = "training-set.bin";
+
+	/**
+	 * The binary file holding the test set.
+	 */
+	public static final String TEST_SET = "test-set.bin";
+
+	public static void main(String[] args) throws IOException {
+		Map<String, Genre> labels = Dataset.readLabels(new File("labels.csv"));
+		DatasetLoader loader = new DatasetLoader();
+		convert(loader, new File("./training-set/"), labels, new File(TRAINING_SET));
+		convert(loader, new File("./test-set/"), null, new File(TEST_SET));
+	}
+
+	private static void convert(DatasetLoader loader, File dir, Map<String, Genre> labels, File out)
+			throws IOException {
+		System.out.print("converting " + dir.getName() + "... ");
+		FeatureStore store = loader.load(dir, labels);
+		Dataset.write(store, out);
+		System.out.println(store.songCount() + " songs, " + store.frameCount() + " frames written to " + out);
+	}
+}
@@ -0,0 +1,134 @@
+package io;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import classifier.FeatureStore;
+import main.Genre;
+import main.Song;
+
+/**
+ * Reads directories of CSV song files by parsing the files concurrently on a
+ * work-stealing pool. Each worker thread reuses its own parser. Once all files
+ * have been parsed, the songs are added to the store in order of file name, so
+ * the song ids do not depend on the number of threads or on the order in which
+ * the files finish parsing.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class DatasetLoader {
+	private ForkJoinPool pool;
+	private ThreadLocal<FrameParser> parsers = ThreadLocal.withInitial(() -> new FrameParser(Song.FEATURES));
+	private long bytesRead = 0;
+	private long loadTime = 0;
+
+	/**
+	 * Creates a loader that uses one thread per available processor.
+	 */
+	public DatasetLoader() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * Creates a loader that parses at most the given number of files at once.
+	 *
+	 * @param parallelism
+	 */
+	public DatasetLoader(int parallelism) {
+		pool = new ForkJoinPool(parallelism);
+	}
+
+	/**
+	 * Reads every song in the directory into a new store, in order of file
+	 * name. The genre of each song is looked up in the labels, which may be
+	 * null if the genres are not known.
+	 *
+	 * @param dir
+	 * @param labels
+	 * @return
+	 * @throws IOException
+	 */
+	public FeatureStore load(File dir, Map<String, Genre> labels) throws IOException {
+		long start = System.nanoTime();
+		File[] files = dir.listFiles();
+		if (files == null) {
+			throw new IOException("cannot list " + dir);
+		}
+		Arrays.sort(files);
+		double[][] songs = new double[files.length][];
+		try {
+			pool.invoke(new ParseTask(files, songs, 0, files.length));
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+
+		int frameCount = 0;
+		for (double[] song : songs) {
+			frameCount += song.length / Song.FEATURES;
+		}
+		FeatureStore store = new FeatureStore(Song.FEATURES, frameCount);
+		for (int i = 0; i < files.length; ++i) {
+			String filename = files[i].getName();
+			store.add(filename, songs[i], songs[i].length / Song.FEATURES,
+					labels == null ? null : labels.get(filename));
+			// Releases each song as soon as it is copied.
+			songs[i] = null;
+			bytesRead += files[i].length();
+		}
+		loadTime += System.nanoTime() - start;
+		return store;
+	}
+
+	/**
+	 * Returns the average load throughput so far in MB/s.
+	 *
+	 * @return
+	 */
+	public double throughput() {
+		if (loadTime == 0) {
+			return 0;
+		}
+		return (bytesRead / 1e6) / (loadTime / 1e9);
+	}
+
+	private class ParseTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private File[] files;
+		private double[][] songs;
+		private int begin, end;
+
+		public ParseTask(File[] files, double[][] songs, int begin, int end) {
+			this.files = files;
+			this.songs = songs;
+			this.begin = begin;
+			this.end = end;
+		}
+
+		@Override
+		protected void compute() {
+			if (begin == end) {
+				return;
+			} else if (begin + 1 == end) {
+				FrameParser parser = parsers.get();
+				try {
+					int size = parser.parse(files[begin]);
+					songs[begin] = Arrays.copyOf(parser.frames(), size * Song.FEATURES);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+				return;
+			}
+			// Splits the files in half so that idle workers can steal the
+			// other half.
+			int middle = (begin + end) / 2;
+			invokeAll(new ParseTask(files, songs, begin, middle), new ParseTask(files, songs, middle, end));
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A streaming parser for CSV files of frames, with one frame of comma-separated
+ * values per line. Files are read through a channel into a direct buffer and
+ * the values are parsed straight into a primitive array of frames, so parsing
+ * does not allocate any objects per value. A parser can be reused for any
+ * number of files, but not by multiple threads at once.
+ *
+ * Values beyond the frame size on a line are ignored.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class FrameParser {
+	private static final int BUFFER_SIZE = 1 << 16;
+	private static final int MAX_TOKEN_SIZE = 64;
+
+	// The largest number of significant digits that always fits in a long.
+	private static final int MAX_DIGITS = 18;
+
+	// The powers of ten that are exactly representable as doubles.
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	private int dataSize;
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+	private byte[] token = new byte[MAX_TOKEN_SIZE];
+	private int tokenSize = 0;
+	private double[] frames;
+	private int frameCount = 0;
+	private int column = 0;
+	private int line = 0;
+
+	private long bytesRead = 0;
+	private long parseTime = 0;
+
+	/**
+	 * Creates a parser for frames with the given number of values.
+	 *
+	 * @param dataSize
+	 */
+	public FrameParser(int dataSize) {
+		this.dataSize = dataSize;
+		frames = new double[1024 * dataSize];
+	}
+
+	/**
+	 * Parses the frames in the file and returns the number of frames read.
+	 *
+	 * @param file
+	 * @return
+	 * @throws IOException
+	 */
+	public int parse(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			return parse(in.getChannel());
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Parses the frames in the channel and returns the number of frames read.
+	 * The frames are available through frames() until the next call to parse.
+	 *
+	 * @param channel
+	 * @return
+	 * @throws IOException
+	 */
+	public int parse(ReadableByteChannel channel) throws IOException {
+		long start = System.nanoTime();
+		frameCount = 0;
+		column = 0;
+		line = 1;
+		tokenSize = 0;
+		buffer.clear();
+		int read;
+		while ((read = channel.read(buffer)) != -1) {
+			bytesRead += read;
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				accept(buffer.get());
+			}
+			buffer.clear();
+		}
+		endLine();
+		parseTime += System.nanoTime() - start;
+		return frameCount;
+	}
+
+	private void accept(byte c) {
+		if (c == ',') {
+			endValue();
+		} else if (c == '\n') {
+			endLine();
+			++line;
+		} else if (c != '\r' && c != ' ' && c != '\t') {
+			if (tokenSize == MAX_TOKEN_SIZE) {
+				throw new Error("value too long on line " + line);
+			}
+			token[tokenSize++] = c;
+		}
+	}
+
+	private void endValue() {
+		if (column < dataSize) {
+			int index = frameCount * dataSize + column;
+			if (index == frames.length) {
+				frames = Arrays.copyOf(frames, 2 * frames.length);
+			}
+			frames[index] = parseValue();
+		}
+		++column;
+		tokenSize = 0;
+	}
+
+	private void endLine() {
+		if (column == 0 && tokenSize == 0) {
+			// Skips over empty lines.
+			return;
+		}
+		endValue();
+		if (column < dataSize) {
+			throw new Error("expected " + dataSize + " values but found " + column + " on line " + line);
+		}
+		++frameCount;
+		column = 0;
+	}
+
+	/**
+	 * Parses the current token as a decimal number. Values with at most 18
+	 * significant digits and a small enough exponent are computed exactly from
+	 * their digits, which gives the same correctly rounded result as
+	 * Double.parseDouble. Any other values are handed over to
+	 * Double.parseDouble.
+	 *
+	 * @return
+	 */
+	private double parseValue() {
+		int i = 0;
+		boolean negative = false;
+		if (i < tokenSize && (token[i] == '-' || token[i] == '+')) {
+			negative = token[i] == '-';
+			++i;
+		}
+
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean exact = true;
+		boolean empty = true;
+		for (; i < tokenSize && isDigit(token[i]); ++i) {
+			empty = false;
+			if (digits < MAX_DIGITS) {
+				mantissa = 10 * mantissa + (token[i] - '0');
+				if (mantissa != 0) {
+					++digits;
+				}
+			} else {
+				exact = false;
+			}
+		}
+		if (i < tokenSize && token[i] == '.') {
+			for (++i; i < tokenSize && isDigit(token[i]); ++i) {
+				empty = false;
+				if (digits < MAX_DIGITS) {
+					mantissa = 10 * mantissa + (token[i] - '0');
+					if (mantissa != 0) {
+						++digits;
+					}
+					--exponent;
+				} else {
+					exact = false;
+				}
+			}
+		}
+		if (!empty && i < tokenSize && (token[i] == 'e' || token[i] == 'E')) {
+			++i;
+			boolean negativeExponent = false;
+			if (i < tokenSize && (token[i] == '-' || token[i] == '+')) {
+				negativeExponent = token[i] == '-';
+				++i;
+			}
+			int value = 0;
+			boolean emptyExponent = true;
+			for (; i < tokenSize && isDigit(token[i]); ++i) {
+				emptyExponent = false;
+				if (value < 10000) {
+					value = 10 * value + (token[i] - '0');
+				}
+			}
+			if (emptyExponent) {
+				return parseSlow();
+			}
+			exponent += negativeExponent ? -value : value;
+		}
+		if (empty || i != tokenSize || !exact || mantissa >= (1L << 53)) {
+			return parseSlow();
+		}
+
+		double result;
+		if (exponent == 0) {
+			result = mantissa;
+		} else if (exponent > 0 && exponent < POWERS_OF_TEN.length) {
+			result = mantissa * POWERS_OF_TEN[exponent];
+		} else if (exponent < 0 && -exponent < POWERS_OF_TEN.length) {
+			result = mantissa / POWERS_OF_TEN[-exponent];
+		} else {
+			return parseSlow();
+		}
+		return negative ? -result : result;
+	}
+
+	private double parseSlow() {
+		String value = new String(token, 0, tokenSize, StandardCharsets.US_ASCII);
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new Error("invalid value \"" + value + "\" on line " + line);
+		}
+	}
+
+	private static boolean isDigit(byte c) {
+		return c >= '0' && c <= '9';
+	}
+
+	/**
+	 * Returns the frames read by the last call to parse, one after the other.
+	 * The array may be longer than the number of values read.
+	 *
+	 * @return
+	 */
+	public double[] frames() {
+		return frames;
+	}
+
+	/**
+	 * Returns the number of frames read by the last call to parse.
+	 *
+	 * @return
+	 */
+	public int frameCount() {
+		return frameCount;
+	}
+
+	/**
+	 * Returns the total number of bytes parsed so far.
+	 *
+	 * @return
+	 */
+	public long bytesRead() {
+		return bytesRead;
+	}
+
+	/**
+	 * Returns the average parse throughput so far in MB/s.
+	 *
+	 * @return
+	 */
+	public double throughput() {
+		if (parseTime == 0) {
+			return 0;
+		}
+		return (bytesRead / 1e6) / (parseTime / 1e9);
+	}
+}
@@ -0,0 +1,114 @@
+package main;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import classifier.FeatureStore;
+import classifier.knn.BestBinFirstKDTree;
+import classifier.knn.KDTree;
+import classifier.knn.NeighbourHeap;
+import classifier.knn.NeighbourIndex;
+import io.Dataset;
+
+/**
+ * Checks that an index can be searched by many threads at once. One exact KD
+ * tree and one best bin first KD tree are built over a random sample of the
+ * training frames and shared by all the threads. Each thread searches every
+ * query with its own search, in an order of its own, for a number of rounds,
+ * and the ids of the neighbours it finds must be exactly those found by a
+ * serial run over the same index.
+ *
+ * Usage: ConcurrencyCheck [threads] [frames] [queries] [k]
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class ConcurrencyCheck {
+	private static final long SEED = 526;
+	private static final int ROUNDS = 3;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		FeatureStore store = Dataset.loadTrainingSet();
+		int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+		int frameCount = args.length > 1 ? Integer.parseInt(args[1]) : store.frameCount() / 2;
+		int queryCount = args.length > 2 ? Integer.parseInt(args[2]) : 500;
+		int k = args.length > 3 ? Integer.parseInt(args[3]) : 5;
+		if (frameCount + queryCount > store.frameCount()) {
+			throw new Error("not enough frames for " + frameCount + " points and " + queryCount + " queries");
+		}
+
+		// Shuffles the frame ids and splits them into indexed frames and
+		// queries.
+		int[] ids = new int[store.frameCount()];
+		for (int i = 0; i < ids.length; ++i) {
+			ids[i] = i;
+		}
+		Random rng = new Random(SEED);
+		for (int i = ids.length - 1; i > 0; --i) {
+			int j = rng.nextInt(i + 1);
+			int id = ids[i];
+			ids[i] = ids[j];
+			ids[j] = id;
+		}
+		int[] frames = Arrays.copyOf(ids, frameCount);
+		double[][] queries = new double[queryCount][];
+		for (int i = 0; i < queryCount; ++i) {
+			queries[i] = store.get(ids[frameCount + i], new double[store.dataSize()]);
+		}
+
+		check("kd tree", new KDTree(store, frames, store.dataSize()), queries, k, threads);
+		check("best bin first kd tree", new BestBinFirstKDTree(store, frames, store.dataSize()), queries, k,
+				threads);
+		System.out.println("ok");
+	}
+
+	private static void check(String name, NeighbourIndex index, double[][] queries, int k, int threads)
+			throws InterruptedException {
+		int[][] expected = new int[queries.length][];
+		NeighbourIndex.Search serial = index.search(k);
+		for (int i = 0; i < queries.length; ++i) {
+			expected[i] = ids(serial.nearest(queries[i]));
+		}
+
+		AtomicInteger mismatches = new AtomicInteger();
+		Thread[] workers = new Thread[threads];
+		for (int t = 0; t < threads; ++t) {
+			long seed = SEED + t;
+			workers[t] = new Thread(() -> {
+				NeighbourIndex.Search search = index.search(k);
+				Random rng = new Random(seed);
+				for (int round = 0; round < ROUNDS; ++round) {
+					for (int n = 0; n < queries.length; ++n) {
+						int i = rng.nextInt(queries.length);
+						if (!Arrays.equals(ids(search.nearest(queries[i])), expected[i])) {
+							mismatches.incrementAndGet();
+						}
+					}
+				}
+			});
+		}
+		long start = System.nanoTime();
+		for (Thread worker : workers) {
+			worker.start();
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%s: %d threads, %d searches in %.1f s, %d mismatches%n", name, threads,
+				(long) threads * ROUNDS * queries.length, seconds, mismatches.get());
+		if (mismatches.get() != 0) {
+			throw new Error(name + ": concurrent searches differ from a serial run");
+		}
+	}
+
+	private static int[] ids(NeighbourHeap nearest) {
+		int[] result = new int[nearest.size()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = nearest.id(i);
+		}
+		return result;
+	}
+}
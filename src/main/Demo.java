@@ -1,79 +1,52 @@
 package main;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
 import java.util.Scanner;
+import java.util.function.Supplier;
 
+import classifier.CrossValidator;
+import classifier.FeatureStore;
 import classifier.SongClassifier;
 import classifier.gaussian.GaussianClassifier;
 import classifier.gaussian.TotalGaussianClassifier;
 import classifier.knn.KNNClassifier;
 import classifier.knn.WeighedKNNClassifier;
 import classifier.tree.DecisionForestClassifier;
+import io.Dataset;
+import io.DatasetLoader;
 
 public class Demo {
-	private static List<String> songNames = new ArrayList<>();
-	private static Map<String, Genre> labels = new HashMap<>();
-	private static Map<String, List<double[]>> songs = new HashMap<>();
+	// Seeds the cross-validation shuffle so that results are reproducible.
+	private static final long SEED = 526;
 
-	public static void main(String[] args) throws FileNotFoundException {
+	private static FeatureStore songs;
+
+	public static void main(String[] args) throws IOException {
 		getTrainingSet();
-		getTrainingLabels();
 
 		Scanner in = new Scanner(System.in);
 		while (true) {
-			SongClassifier agent = getAgent(in);
+			Supplier<SongClassifier> agent = getAgent(in);
 			performAction(in, agent);
 		}
 	}
 
-	private static void getTrainingSet() throws FileNotFoundException {
+	private static void getTrainingSet() throws IOException {
 		System.out.print("getting training data... ");
-		File dir = new File("./training-set/");
-		File[] files = dir.listFiles();
-		for (int i = 0; i < files.length; ++i) {
-			String filename = files[i].getName();
-			List<double[]> song = new ArrayList<>();
-			Scanner in = new Scanner(new FileInputStream(files[i]));
-			while (in.hasNextLine()) {
-				String line = in.nextLine();
-				String[] data = line.split(",");
-				double[] feature = new double[Song.FEATURES];
-				for (int j = 0; j < Song.FEATURES; ++j) {
-					feature[j] = Double.parseDouble(data[j]);
-				}
-				song.add(feature);
-			}
-			songNames.add(filename);
-			songs.put(filename, song);
-			in.close();
+		DatasetLoader loader = new DatasetLoader();
+		songs = Dataset.loadTrainingSet(loader);
+		// The loader is only used if there is no binary dataset to map.
+		if (loader.throughput() > 0) {
+			System.out.println("done (" + Math.round(loader.throughput()) + " MB/s)");
+		} else {
+			System.out.println("done");
 		}
-		System.out.println("done");
-	}
-
-	private static void getTrainingLabels() throws FileNotFoundException {
-		System.out.print("getting training labels... ");
-		Scanner in = new Scanner(new FileInputStream("labels.csv"));
-		in.nextLine(); // Skip over titles.
-		while (in.hasNextLine()) {
-			String line = in.nextLine();
-			String[] fields = line.split(",");
-			labels.put(fields[0], Genre.fromString(fields[1]));
-		}
-		in.close();
-		System.out.println("done");
 	}
 
-	private static SongClassifier getAgent(Scanner in) {
-		SongClassifier agent = null;
+	private static Supplier<SongClassifier> getAgent(Scanner in) {
+		Supplier<SongClassifier> agent = null;
 		while (true) {
 			System.out.println("Select an agent:");
 			System.out.println("(1) gaussian");
@@ -88,22 +61,22 @@ public class Demo {
 			}
 			int choice = in.nextInt();
 			if (choice == 1) {
-				agent = new GaussianClassifier();
+				agent = GaussianClassifier::new;
 				break;
 			} else if (choice == 2) {
-				agent = new TotalGaussianClassifier();
+				agent = TotalGaussianClassifier::new;
 				break;
 			} else if (choice == 3) {
 				int k = getInteger(in, "what value of k? ", 1);
-				agent = new KNNClassifier(k);
+				agent = () -> new KNNClassifier(k);
 				break;
 			} else if (choice == 4) {
 				int k = getInteger(in, "what value of k? ", 1);
-				agent = new WeighedKNNClassifier(k);
+				agent = () -> new WeighedKNNClassifier(k);
 				break;
 			} else if (choice == 5) {
 				int numTrees = getInteger(in, "how many trees in the forest? ", 1);
-				agent = new DecisionForestClassifier(numTrees);
+				agent = () -> new DecisionForestClassifier(numTrees);
 				break;
 			} else {
 				in.nextLine();
@@ -114,7 +87,10 @@ public class Demo {
 		return agent;
 	}
 
-	private static void performAction(Scanner in, SongClassifier agent) throws FileNotFoundException {
+	private static void performAction(Scanner in, Supplier<SongClassifier> agent) throws IOException {
+		// Builds the classifier once, to name it and to classify the test set.
+		// Cross-validation builds a new one for each fold.
+		SongClassifier classifier = agent.get();
 		while (true) {
 			System.out.println("select an action to perform:");
 			System.out.println("(1) cross-validation");
@@ -128,12 +104,13 @@ public class Demo {
 			if (choice == 1) {
 				int testSets = getInteger(in, "how many sets to partition the data into? ", 2);
 				System.out.println("cross validating...");
+				CrossValidator validator = new CrossValidator(songs, testSets, SEED);
 				System.out.println(
-						"results for " + agent.getClass().getSimpleName() + ": " + crossValidate(agent, testSets));
+						"results for " + classifier.getClass().getSimpleName() + ": " + validator.validate(agent));
 				return;
 			} else if (choice == 2) {
-				train(agent);
-				classifyTestSet(agent);
+				train(classifier);
+				classifyTestSet(classifier);
 				return;
 			} else {
 				in.nextLine();
@@ -161,72 +138,29 @@ public class Demo {
 		}
 	}
 
-	private static double crossValidate(SongClassifier agent, int testSets) {
-		int n = songNames.size();
-		int testSetSize = n / testSets;
-		double total = 0;
-		Collections.shuffle(songNames);
-		for (int i = 0; i < testSets; ++i) {
-			System.out.print((i + 1) + " / " + testSets + ": ");
-			agent.clear();
-			for (int j = 0; j < n; ++j) {
-				if (j >= i * testSetSize && j < (i + 1) * testSetSize) {
-					continue;
-				}
-				String name = songNames.get(j);
-				agent.add(songs.get(name), labels.get(name));
-			}
-			agent.train();
-			int correct = 0;
-			for (int j = i * testSetSize; j < (i + 1) * testSetSize; ++j) {
-				String name = songNames.get(j);
-				Genre genre = agent.classify(songs.get(name));
-				if (genre.equals(labels.get(name))) {
-					++correct;
-				}
-			}
-			total += (double) (correct) / testSetSize;
-			System.out.print(((double) (correct) / testSetSize) + "; ");
-		}
-		System.out.println();
-		return total / testSets;
-	}
-
 	private static void train(SongClassifier agent) {
 		System.out.print("training... ");
 		agent.clear();
-		int n = songNames.size();
-		for (int i = 0; i < n; ++i) {
-			String name = songNames.get(i);
-			agent.add(songs.get(name), labels.get(name));
+		for (int i = 0; i < songs.songCount(); ++i) {
+			agent.add(songs, i);
 		}
 		agent.train();
 		System.out.println("done");
 	}
 
-	private static void classifyTestSet(SongClassifier agent) throws FileNotFoundException {
+	private static void classifyTestSet(SongClassifier agent) throws IOException {
 		System.out.print("classifying test data... ");
 		String outName = "results." + agent.getClass().getSimpleName().toLowerCase() + ".csv";
 		PrintWriter out = new PrintWriter(new FileOutputStream(outName));
 		out.println("id,category");
-		File dir = new File("./test-set/");
-		File[] files = dir.listFiles();
-		for (int i = 0; i < files.length; ++i) {
-			String filename = files[i].getName();
-			List<double[]> song = new ArrayList<>();
-			Scanner in = new Scanner(new FileInputStream(files[i]));
-			while (in.hasNextLine()) {
-				String line = in.nextLine();
-				String[] data = line.split(",");
-				double[] feature = new double[Song.FEATURES];
-				for (int j = 0; j < Song.FEATURES; ++j) {
-					feature[j] = Double.parseDouble(data[j]);
-				}
-				song.add(feature);
-			}
-			Genre genre = agent.classify(song);
-			out.println(filename + "," + genre.toString());
-			in.close();
+		FeatureStore testSongs = Dataset.loadTestSet();
+		int[] ids = new int[testSongs.songCount()];
+		for (int i = 0; i < ids.length; ++i) {
+			ids[i] = i;
+		}
+		Genre[] genres = agent.classifyAll(testSongs, ids);
+		for (int i = 0; i < ids.length; ++i) {
+			out.println(testSongs.name(i) + "," + genres[i].toString());
 		}
 		out.close();
 		System.out.println("done");
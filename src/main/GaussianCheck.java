@@ -0,0 +1,179 @@
+package main;
+
+import java.io.IOException;
+import java.util.function.Supplier;
+
+import classifier.CrossValidator;
+import classifier.FeatureStore;
+import classifier.SongClassifier;
+import classifier.gaussian.GaussianClassifier;
+import classifier.gaussian.TotalGaussianClassifier;
+import io.Dataset;
+import numeric.Matrix;
+import numeric.Stats;
+
+/**
+ * Checks the Gaussian classifiers.
+ *
+ * The classifiers must train on small samples of songs. The classifier on
+ * song averages sees a singular covariance for any genre with no more training
+ * songs than there are features, and the smallest sample leaves some genres
+ * with one training song or none. Each classifier must cross-validate on each
+ * sample without failing.
+ *
+ * Scoring a song from its statistics must agree with scoring its frames in
+ * blocks: for every song of a larger sample, both must give the same UNLL
+ * under each genre up to rounding, and so choose the same genre.
+ *
+ * Whitening the frames must also agree with the quadratic form it replaces.
+ * The covariances of a larger sample are not singular, so no ridge is added
+ * to them, and the UNLLs of its first songs must match those found from the
+ * inverse and the determinant of each covariance directly.
+ *
+ * Usage: GaussianCheck
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class GaussianCheck {
+	private static final long SEED = 526;
+
+	private static final int[] SONG_COUNTS = { 120, 40 };
+	private static final int FOLDS = 4;
+
+	private static final int SUMMARY_SONG_COUNT = 300;
+	// The greatest difference allowed between two UNLLs of a song, relative
+	// to the larger of the two.
+	private static final double TOLERANCE = 1e-9;
+	private static final int QUADRATIC_FORM_SONG_COUNT = 50;
+
+	public static void main(String[] args) throws IOException {
+		FeatureStore songs = Dataset.loadTrainingSet();
+		for (int songCount : SONG_COUNTS) {
+			FeatureStore sample = Dataset.sample(songs, songCount, SEED);
+			CrossValidator validator = new CrossValidator(sample, FOLDS, 1);
+			check(songCount + " songs, gaussian", validator, GaussianClassifier::new);
+			check(songCount + " songs, total gaussian", validator, TotalGaussianClassifier::new);
+			check(songCount + " songs, total gaussian (song statistics)", validator,
+					() -> new TotalGaussianClassifier(true));
+		}
+		FeatureStore sample = Dataset.sample(songs, SUMMARY_SONG_COUNT, SEED);
+		checkSummaries(sample);
+		checkQuadraticForms(sample);
+		System.out.println("ok");
+	}
+
+	private static void check(String name, CrossValidator validator, Supplier<SongClassifier> supplier) {
+		System.out.printf("%s: %.4f%n", name, validator.validate(supplier).mean());
+	}
+
+	/**
+	 * Trains a classifier which scores songs frame by frame and one which
+	 * scores them from their statistics on the same songs, and compares their
+	 * scores of each of those songs.
+	 */
+	private static void checkSummaries(FeatureStore songs) {
+		TotalGaussianClassifier frames = train(new TotalGaussianClassifier(false), songs);
+		TotalGaussianClassifier summaries = train(new TotalGaussianClassifier(true), songs);
+		double maxError = 0;
+		for (int song = 0; song < songs.songCount(); ++song) {
+			double[] expected = frames.unlls(songs, song);
+			double[] actual = summaries.unlls(songs, song);
+			for (int genre = 0; genre < expected.length; ++genre) {
+				double error = error(actual[genre], expected[genre]);
+				if (!(error <= TOLERANCE)) {
+					throw new Error("song " + song + ", genre " + genre + ": UNLL " + actual[genre]
+							+ " from statistics, " + expected[genre] + " from frames");
+				}
+				maxError = Math.max(maxError, error);
+			}
+			if (best(actual) != best(expected)) {
+				throw new Error("song " + song + ": statistics and frames choose different genres");
+			}
+		}
+		System.out.printf("%d songs scored from statistics and frames: relative error at most %.1e%n",
+				songs.songCount(), maxError);
+	}
+
+	/**
+	 * Trains a classifier which scores songs frame by frame, and compares its
+	 * scores of the first songs with the sum over their frames of
+	 * (x - mu)^T * inverse(covariance) * (x - mu) + log(det(covariance)).
+	 */
+	private static void checkQuadraticForms(FeatureStore songs) {
+		TotalGaussianClassifier classifier = train(new TotalGaussianClassifier(false), songs);
+		Stats[] stats = new Stats[Genre.class.getEnumConstants().length];
+		for (int genre = 0; genre < stats.length; ++genre) {
+			stats[genre] = new Stats(songs.dataSize());
+		}
+		double[] feature = new double[songs.dataSize()];
+		for (int frame = 0; frame < songs.frameCount(); ++frame) {
+			stats[songs.label(frame)].add(songs.get(frame, feature));
+		}
+		double[][] averages = new double[stats.length][];
+		double[][][] inverses = new double[stats.length][][];
+		double[] logDeterminants = new double[stats.length];
+		for (int genre = 0; genre < stats.length; ++genre) {
+			double[][] covariance = stats[genre].covariance();
+			averages[genre] = stats[genre].average();
+			inverses[genre] = Matrix.invert(covariance);
+			logDeterminants[genre] = Math.log(Matrix.convertMatrix(covariance).determinant());
+		}
+
+		double maxError = 0;
+		for (int song = 0; song < QUADRATIC_FORM_SONG_COUNT; ++song) {
+			double[] actual = classifier.unlls(songs, song);
+			for (int genre = 0; genre < stats.length; ++genre) {
+				double expected = 0;
+				for (int frame = songs.begin(song); frame < songs.end(song); ++frame) {
+					songs.get(frame, feature);
+					for (int i = 0; i < feature.length; ++i) {
+						for (int j = 0; j < feature.length; ++j) {
+							expected += (feature[i] - averages[genre][i]) * inverses[genre][i][j]
+									* (feature[j] - averages[genre][j]);
+						}
+					}
+					expected += logDeterminants[genre];
+				}
+				double error = error(actual[genre], expected);
+				if (!(error <= TOLERANCE)) {
+					throw new Error("song " + song + ", genre " + genre + ": UNLL " + actual[genre]
+							+ " from whitening, " + expected + " from the inverse covariance");
+				}
+				maxError = Math.max(maxError, error);
+			}
+		}
+		System.out.printf("%d songs scored by whitening and by inverse covariance: relative error at most %.1e%n",
+				QUADRATIC_FORM_SONG_COUNT, maxError);
+	}
+
+	/**
+	 * Returns the difference between two values relative to the larger of
+	 * them.
+	 */
+	private static double error(double actual, double expected) {
+		return Math.abs(actual - expected) / Math.max(Math.abs(actual), Math.abs(expected));
+	}
+
+	private static TotalGaussianClassifier train(TotalGaussianClassifier classifier, FeatureStore songs) {
+		for (int song = 0; song < songs.songCount(); ++song) {
+			classifier.add(songs, song);
+		}
+		classifier.train();
+		return classifier;
+	}
+
+	/**
+	 * Returns the index of the least UNLL, or the first such index if there is
+	 * a tie.
+	 */
+	private static int best(double[] unlls) {
+		int result = 0;
+		for (int i = 1; i < unlls.length; ++i) {
+			if (unlls[i] < unlls[result]) {
+				result = i;
+			}
+		}
+		return result;
+	}
+}
@@ -0,0 +1,159 @@
+package main;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import classifier.FeatureStore;
+import classifier.knn.HNSWIndex;
+import classifier.knn.KDTree;
+import classifier.knn.NeighbourHeap;
+import classifier.knn.ProductQuantizationIndex;
+import io.Dataset;
+
+/**
+ * Compares the approximate HNSW and product quantization indexes against the
+ * exact KD tree. A random sample of the training frames is indexed, and the
+ * remaining frames are used as queries. For each value of efSearch and for
+ * each number of lists probed and candidates re-ranked, this reports the
+ * recall@k, the fraction of the true k nearest neighbours that were found,
+ * along with the number of queries answered per second.
+ *
+ * Usage: IndexBenchmark [frames] [queries] [k]
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class IndexBenchmark {
+	private static final long SEED = 526;
+	private static final int[] EF_SEARCH = { 10, 20, 50, 100, 200 };
+	private static final int[] PROBES = { 4, 8, 16 };
+	private static final int[] RERANK = { 0, 20, 100 };
+
+	public static void main(String[] args) throws IOException {
+		FeatureStore store = Dataset.loadTrainingSet();
+		int frameCount = args.length > 0 ? Integer.parseInt(args[0]) : store.frameCount() / 2;
+		int queryCount = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+		int k = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		if (frameCount + queryCount > store.frameCount()) {
+			throw new Error("not enough frames for " + frameCount + " points and " + queryCount + " queries");
+		}
+
+		// Shuffles the frame ids and splits them into indexed frames and
+		// queries.
+		int[] ids = new int[store.frameCount()];
+		for (int i = 0; i < ids.length; ++i) {
+			ids[i] = i;
+		}
+		Random rng = new Random(SEED);
+		for (int i = ids.length - 1; i > 0; --i) {
+			int j = rng.nextInt(i + 1);
+			int id = ids[i];
+			ids[i] = ids[j];
+			ids[j] = id;
+		}
+		int[] frames = new int[frameCount];
+		System.arraycopy(ids, 0, frames, 0, frameCount);
+		double[][] queries = new double[queryCount][];
+		for (int i = 0; i < queryCount; ++i) {
+			queries[i] = store.get(ids[frameCount + i], new double[store.dataSize()]);
+		}
+		System.out.println(frameCount + " frames, " + queryCount + " queries, k = " + k);
+
+		long start = System.nanoTime();
+		KDTree tree = new KDTree(store, frames, store.dataSize());
+		System.out.printf("KD tree: built in %.2f s%n", (System.nanoTime() - start) / 1e9);
+		KDTree.Query exactQuery = new KDTree.Query(k);
+		double[][] exact = new double[queryCount][];
+		start = System.nanoTime();
+		for (int i = 0; i < queryCount; ++i) {
+			exact[i] = distances(tree.nearest(exactQuery, queries[i]));
+		}
+		System.out.printf("KD tree: recall 1.0000, %.0f queries/s%n", queryCount / ((System.nanoTime() - start) / 1e9));
+
+		start = System.nanoTime();
+		HNSWIndex index = new HNSWIndex(store, frames, store.dataSize());
+		System.out.printf("HNSW: built in %.2f s%n", (System.nanoTime() - start) / 1e9);
+		for (int ef : EF_SEARCH) {
+			HNSWIndex.Query query = index.query(k, ef);
+			int found = 0;
+			start = System.nanoTime();
+			for (int i = 0; i < queryCount; ++i) {
+				found += matches(exact[i], distances(index.nearest(query, queries[i])));
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.printf("HNSW efSearch %d: recall %.4f, %.0f queries/s%n", ef,
+					(double) (found) / (queryCount * k), queryCount / seconds);
+		}
+		index = null;
+
+		start = System.nanoTime();
+		ProductQuantizationIndex quantized = new ProductQuantizationIndex(store, frames, store.dataSize());
+		System.out.printf("PQ: built in %.2f s, %d bytes per frame against %d for the KD tree%n",
+				(System.nanoTime() - start) / 1e9, quantized.size() / frameCount,
+				store.dataSize() * Double.BYTES + Integer.BYTES + 1);
+		for (int probes : PROBES) {
+			for (int rerank : RERANK) {
+				ProductQuantizationIndex.Query query = quantized.query(k, probes, rerank);
+				int found = 0;
+				start = System.nanoTime();
+				for (int i = 0; i < queryCount; ++i) {
+					NeighbourHeap nearest = quantized.nearest(query, queries[i]);
+					// Without re-ranking, the distances found are approximate,
+					// so the exact distances of the frames found are compared
+					// instead.
+					found += matches(exact[i],
+							rerank > 0 ? distances(nearest) : distances(nearest, store, queries[i]));
+				}
+				double seconds = (System.nanoTime() - start) / 1e9;
+				System.out.printf("PQ probes %d, rerank %d: recall %.4f, %.0f queries/s%n", probes, rerank,
+						(double) (found) / (queryCount * k), queryCount / seconds);
+			}
+		}
+	}
+
+	private static double[] distances(NeighbourHeap nearest) {
+		double[] result = new double[nearest.size()];
+		for (int i = 0; i < result.length; ++i) {
+			result[i] = nearest.distance(i);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the exact distances of the frames found, in ascending order.
+	 */
+	private static double[] distances(NeighbourHeap nearest, FeatureStore store, double[] query) {
+		double[] result = new double[nearest.size()];
+		double[] feature = new double[store.dataSize()];
+		for (int i = 0; i < result.length; ++i) {
+			store.get(nearest.id(i), feature);
+			for (int axis = 0; axis < feature.length; ++axis) {
+				double diff = feature[axis] - query[axis];
+				result[i] += diff * diff;
+			}
+		}
+		Arrays.sort(result);
+		return result;
+	}
+
+	/**
+	 * Returns the number of true neighbours found. Neighbours are compared by
+	 * distance rather than by id, so that ties between equally distant frames
+	 * are not counted as misses.
+	 */
+	private static int matches(double[] exact, double[] found) {
+		int result = 0;
+		int j = 0;
+		for (int i = 0; i < found.length && j < exact.length; ++i) {
+			while (j < exact.length && exact[j] < found[i]) {
+				++j;
+			}
+			if (j < exact.length && exact[j] == found[i]) {
+				++result;
+				++j;
+			}
+		}
+		return result;
+	}
+}
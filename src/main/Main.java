@@ -1,164 +1,87 @@
 package main;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintWriter;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-import java.util.Scanner;
 
+import classifier.CrossValidator;
+import classifier.FeatureStore;
 import classifier.SongClassifier;
 import classifier.gaussian.GaussianClassifier;
 import classifier.gaussian.TotalGaussianClassifier;
+import classifier.knn.KDTree;
 import classifier.knn.KNNClassifier;
+import classifier.knn.SharedIndex;
+import classifier.knn.SongKNNClassifier;
 import classifier.knn.WeighedKNNClassifier;
 import classifier.tree.DecisionForestClassifier;
+import classifier.tree.TreeLimits;
+import io.Dataset;
 
 public class Main {
-	private static List<String> songNames = new ArrayList<>();
-	private static Map<String, Genre> labels = new HashMap<>();
-	private static Map<String, List<double[]>> songs = new HashMap<>();
+	// Seeds the cross-validation shuffle so that results are reproducible.
+	private static final long SEED = 526;
 
-	public static void main(String[] args) throws FileNotFoundException {
-		getTrainingSet();
-		getTrainingLabels();
+	private static FeatureStore songs;
 
-		SongClassifier agent;
-		int testSets = 10;
+	public static void main(String[] args) throws IOException {
+		songs = Dataset.loadTrainingSet();
 
-		agent = new GaussianClassifier();
-		System.out.println("gaussian: " + crossValidate(agent, testSets));
-		agent = new TotalGaussianClassifier();
-		System.out.println("total gaussian: " + crossValidate(agent, testSets));
-		agent = new KNNClassifier(1);
-		System.out.println("1NN: " + crossValidate(agent, testSets));
-		agent = new KNNClassifier(3);
-		System.out.println("3NN: " + crossValidate(agent, testSets));
-		agent = new KNNClassifier(5);
-		System.out.println("5NN: " + crossValidate(agent, testSets));
-		agent = new KNNClassifier(7);
-		System.out.println("7NN: " + crossValidate(agent, testSets));
-		agent = new WeighedKNNClassifier(1);
-		System.out.println("weighed 1NN: " + crossValidate(agent, testSets));
-		agent = new WeighedKNNClassifier(3);
-		System.out.println("weighed 3NN: " + crossValidate(agent, testSets));
-		agent = new WeighedKNNClassifier(5);
-		System.out.println("weighed 5NN: " + crossValidate(agent, testSets));
-		agent = new WeighedKNNClassifier(7);
-		System.out.println("weighed 7NN: " + crossValidate(agent, testSets));
-		agent = new DecisionForestClassifier(3);
-		System.out.println("decision forest (3): " + crossValidate(agent, testSets));
-		agent = new DecisionForestClassifier(5);
-		System.out.println("decision forest (5): " + crossValidate(agent, testSets));
-		agent = new DecisionForestClassifier(10);
-		System.out.println("decision forest (10): " + crossValidate(agent, testSets));
-		agent = new DecisionForestClassifier(20);
-		System.out.println("decision forest (20): " + crossValidate(agent, testSets));
+		int testSets = 10;
+		CrossValidator validator = new CrossValidator(songs, testSets, SEED);
+		System.out.println("gaussian: " + validator.validate(GaussianClassifier::new));
+		System.out.println("total gaussian: " + validator.validate(TotalGaussianClassifier::new));
+		System.out.println("total gaussian (song statistics): "
+				+ validator.validate(() -> new TotalGaussianClassifier(true)));
+		System.out.println("1NN: " + validator.validate(() -> new KNNClassifier(1)));
+		System.out.println("3NN: " + validator.validate(() -> new KNNClassifier(3)));
+		System.out.println("5NN: " + validator.validate(() -> new KNNClassifier(5)));
+		System.out.println("7NN: " + validator.validate(() -> new KNNClassifier(7)));
+		System.out.println("weighed 1NN: " + validator.validate(() -> new WeighedKNNClassifier(1)));
+		System.out.println("weighed 3NN: " + validator.validate(() -> new WeighedKNNClassifier(3)));
+		System.out.println("weighed 5NN: " + validator.validate(() -> new WeighedKNNClassifier(5)));
+		System.out.println("weighed 7NN: " + validator.validate(() -> new WeighedKNNClassifier(7)));
+		System.out.println("song 5NN: " + validator.validate(() -> new SongKNNClassifier(5)));
+		System.out.println("5NN among 20 songs: "
+				+ validator.validate(() -> new KNNClassifier(5, false, KDTree::new, 20)));
+		SharedIndex index = new SharedIndex(songs);
+		System.out.println("5NN, leave one song out: "
+				+ CrossValidator.leaveOneSongOut(songs).validate(() -> new KNNClassifier(5, false, index.builder()))
+						.mean());
+		System.out.println("decision forest (3): " + validator.validate(() -> new DecisionForestClassifier(3, SEED)));
+		System.out.println("decision forest (5): " + validator.validate(() -> new DecisionForestClassifier(5, SEED)));
+		System.out.println("decision forest (10): " + validator.validate(() -> new DecisionForestClassifier(10, SEED)));
+		System.out.println("decision forest (20): " + validator.validate(() -> new DecisionForestClassifier(20, SEED)));
+		System.out.println("decision forest (20, histograms): "
+				+ validator.validate(() -> new DecisionForestClassifier(20, SEED, true)));
+		DecisionForestClassifier forest = new DecisionForestClassifier(20, SEED, true, TreeLimits.NONE, true);
+		train(forest);
+		System.out.println("decision forest (20, histograms, song samples), out of bag: " + forest.outOfBagAccuracy());
 
+		// SongClassifier agent = new DecisionForestClassifier(20);
 		// train(agent);
 		// classifyTestSet(agent);
 	}
 
-	private static void getTrainingSet() throws FileNotFoundException {
-		File dir = new File("./training-set/");
-		File[] files = dir.listFiles();
-		for (int i = 0; i < files.length; ++i) {
-			String filename = files[i].getName();
-			List<double[]> song = new ArrayList<>();
-			Scanner in = new Scanner(new FileInputStream(files[i]));
-			while (in.hasNextLine()) {
-				String line = in.nextLine();
-				String[] data = line.split(",");
-				double[] feature = new double[Song.FEATURES];
-				for (int j = 0; j < Song.FEATURES; ++j) {
-					feature[j] = Double.parseDouble(data[j]);
-				}
-				song.add(feature);
-			}
-			songNames.add(filename);
-			songs.put(filename, song);
-			in.close();
-		}
-	}
-
-	private static void getTrainingLabels() throws FileNotFoundException {
-		Scanner in = new Scanner(new FileInputStream("labels.csv"));
-		in.nextLine(); // Skip over titles.
-		while (in.hasNextLine()) {
-			String line = in.nextLine();
-			String[] fields = line.split(",");
-			labels.put(fields[0], Genre.fromString(fields[1]));
-		}
-		in.close();
-	}
-
-	private static double crossValidate(SongClassifier agent, int testSets) {
-		int n = songNames.size();
-		int testSetSize = n / testSets;
-		double total = 0;
-		Collections.shuffle(songNames);
-		for (int i = 0; i < testSets; ++i) {
-			System.out.print((i + 1) + " / " + testSets + ": ");
-			agent.clear();
-			for (int j = 0; j < n; ++j) {
-				if (j >= i * testSetSize && j < (i + 1) * testSetSize) {
-					continue;
-				}
-				String name = songNames.get(j);
-				agent.add(songs.get(name), labels.get(name));
-			}
-			agent.train();
-			int correct = 0;
-			for (int j = i * testSetSize; j < (i + 1) * testSetSize; ++j) {
-				String name = songNames.get(j);
-				Genre genre = agent.classify(songs.get(name));
-				if (genre.equals(labels.get(name))) {
-					++correct;
-				}
-			}
-			total += (double) (correct) / testSetSize;
-			System.out.print(((double) (correct) / testSetSize) + "; ");
-		}
-		System.out.println();
-		return total / testSets;
-	}
-
 	private static void train(SongClassifier agent) {
 		agent.clear();
-		int n = songNames.size();
-		for (int i = 0; i < n; ++i) {
-			String name = songNames.get(i);
-			agent.add(songs.get(name), labels.get(name));
+		for (int i = 0; i < songs.songCount(); ++i) {
+			agent.add(songs, i);
 		}
 		agent.train();
 	}
 
-	private static void classifyTestSet(SongClassifier agent) throws FileNotFoundException {
+	private static void classifyTestSet(SongClassifier agent) throws IOException {
 		PrintWriter out = new PrintWriter(new FileOutputStream("results.csv"));
 		out.println("id,category");
-		File dir = new File("./test-set/");
-		File[] files = dir.listFiles();
-		for (int i = 0; i < files.length; ++i) {
-			String filename = files[i].getName();
-			List<double[]> song = new ArrayList<>();
-			Scanner in = new Scanner(new FileInputStream(files[i]));
-			while (in.hasNextLine()) {
-				String line = in.nextLine();
-				String[] data = line.split(",");
-				double[] feature = new double[Song.FEATURES];
-				for (int j = 0; j < Song.FEATURES; ++j) {
-					feature[j] = Double.parseDouble(data[j]);
-				}
-				song.add(feature);
-			}
-			Genre genre = agent.classify(song);
-			out.println(filename + "," + genre.toString());
-			in.close();
+		FeatureStore testSongs = Dataset.loadTestSet();
+		int[] ids = new int[testSongs.songCount()];
+		for (int i = 0; i < ids.length; ++i) {
+			ids[i] = i;
+		}
+		Genre[] genres = agent.classifyAll(testSongs, ids);
+		for (int i = 0; i < ids.length; ++i) {
+			out.println(testSongs.name(i) + "," + genres[i].toString());
 		}
 		out.close();
 	}
@@ -0,0 +1,72 @@
+package main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import classifier.CrossValidator;
+import classifier.FeatureStore;
+import classifier.Precision;
+import classifier.SongClassifier;
+import classifier.gaussian.TotalGaussianClassifier;
+import classifier.knn.KDTree;
+import classifier.knn.KNNClassifier;
+import classifier.knn.WeighedKNNClassifier;
+import io.Dataset;
+
+/**
+ * Reports how much accuracy is lost by storing the frames at a lower
+ * precision. For each precision, the training set is compacted and the nearest
+ * neighbour classifiers search KD trees held at the same precision. Each
+ * classifier is cross-validated on the same folds as with full precision, and
+ * the change in its mean accuracy is reported next to the memory used per
+ * frame.
+ *
+ * Usage: PrecisionReport [songs] [folds] [k]
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class PrecisionReport {
+	private static final long SEED = 526;
+
+	public static void main(String[] args) throws IOException {
+		FeatureStore songs = Dataset.loadTrainingSet();
+		int songCount = args.length > 0 ? Integer.parseInt(args[0]) : songs.songCount();
+		int folds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int k = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+		if (songCount < songs.songCount()) {
+			songs = Dataset.sample(songs, songCount, SEED);
+		}
+		System.out.println(songs.songCount() + " songs, " + songs.frameCount() + " frames, " + folds + " folds, k = "
+				+ k);
+
+		String[] names = { "total gaussian", k + "NN", "weighed " + k + "NN" };
+		double[] baseline = null;
+		for (Precision precision : Precision.values()) {
+			FeatureStore store = songs.compact(precision);
+			CrossValidator validator = new CrossValidator(store, folds, SEED);
+			List<Supplier<SongClassifier>> classifiers = new ArrayList<>();
+			classifiers.add(TotalGaussianClassifier::new);
+			classifiers.add(() -> new KNNClassifier(k, false, KDTree.builder(precision)));
+			classifiers.add(() -> new WeighedKNNClassifier(k, false, KDTree.builder(precision)));
+
+			int bytes = Song.FEATURES * precision.bytes();
+			System.out.printf("%s: %d bytes per frame in the store, %d in a KD tree%n", precision, bytes,
+					bytes + Integer.BYTES + 1);
+			double[] accuracies = new double[classifiers.size()];
+			for (int i = 0; i < accuracies.length; ++i) {
+				accuracies[i] = validator.validate(classifiers.get(i)).mean();
+				if (baseline == null) {
+					System.out.printf("  %s: %.4f%n", names[i], accuracies[i]);
+				} else {
+					System.out.printf("  %s: %.4f (%+.4f)%n", names[i], accuracies[i], accuracies[i] - baseline[i]);
+				}
+			}
+			if (baseline == null) {
+				baseline = accuracies;
+			}
+		}
+	}
+}
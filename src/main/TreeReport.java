@@ -0,0 +1,79 @@
+package main;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import classifier.CrossValidator;
+import classifier.FeatureStore;
+import classifier.tree.DecisionForestClassifier;
+import classifier.tree.TreeLimits;
+import classifier.tree.TreeStats;
+import io.Dataset;
+
+/**
+ * Reports the trade-off between accuracy, training time and model size of
+ * decision forests under different limits on the growth of their trees. For
+ * each set of limits, a forest is cross-validated on the same folds, and its
+ * mean accuracy and time are reported next to the average depth, number of
+ * nodes and number of leaves of its trees and the memory they take up once
+ * compiled for classification.
+ *
+ * Usage: TreeReport [songs] [folds] [trees]
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class TreeReport {
+	private static final long SEED = 526;
+
+	private static final TreeLimits[] LIMITS = { TreeLimits.NONE, new TreeLimits(10, 1, 0, Integer.MAX_VALUE),
+			new TreeLimits(15, 1, 0, Integer.MAX_VALUE), new TreeLimits(20, 1, 0, Integer.MAX_VALUE),
+			new TreeLimits(Integer.MAX_VALUE, 32, 0, Integer.MAX_VALUE),
+			new TreeLimits(Integer.MAX_VALUE, 128, 0, Integer.MAX_VALUE),
+			new TreeLimits(Integer.MAX_VALUE, 1, 0.01, Integer.MAX_VALUE),
+			new TreeLimits(Integer.MAX_VALUE, 1, 0, 1024), new TreeLimits(Integer.MAX_VALUE, 1, 0, 4096) };
+
+	public static void main(String[] args) throws IOException {
+		FeatureStore songs = Dataset.loadTrainingSet();
+		int songCount = args.length > 0 ? Integer.parseInt(args[0]) : songs.songCount();
+		int folds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		int numTrees = args.length > 2 ? Integer.parseInt(args[2]) : 20;
+		if (songCount < songs.songCount()) {
+			songs = Dataset.sample(songs, songCount, SEED);
+		}
+		System.out.println(songs.songCount() + " songs, " + songs.frameCount() + " frames, " + folds + " folds, "
+				+ numTrees + " trees");
+
+		CrossValidator validator = new CrossValidator(songs, folds, SEED);
+		for (TreeLimits limits : LIMITS) {
+			List<DecisionForestClassifier> forests = Collections.synchronizedList(new ArrayList<>());
+			long start = System.nanoTime();
+			double accuracy = validator.validate(() -> {
+				DecisionForestClassifier forest = new DecisionForestClassifier(numTrees, SEED, true, limits);
+				forests.add(forest);
+				return forest;
+			}).mean();
+			double seconds = (System.nanoTime() - start) / 1e9;
+
+			int trees = 0;
+			long depth = 0;
+			long nodes = 0;
+			long leaves = 0;
+			long bytes = 0;
+			for (DecisionForestClassifier forest : forests) {
+				for (TreeStats tree : forest.trees()) {
+					++trees;
+					depth += tree.depth();
+					nodes += tree.size();
+					leaves += tree.leaves();
+					bytes += tree.bytes();
+				}
+			}
+			System.out.printf("%s: %.4f in %.1f s%n", limits, accuracy, seconds);
+			System.out.printf("  per tree: depth %.1f, %d nodes, %d leaves, %.1f KB%n", (double) depth / trees,
+					nodes / trees, leaves / trees, bytes / 1024.0 / trees);
+		}
+	}
+}
@@ -0,0 +1,182 @@
+package numeric;
+
+/**
+ * Sorting and selection routines that order an array of indices by an array of
+ * keys, moving both together. They operate on primitive arrays so that data
+ * can be reordered without allocating an object per element.
+ *
+ * @author Andrei Purcarus
+ *
+ */
+public class IndexSort {
+	private static final int INSERTION_SORT_SIZE = 16;
+
+	/**
+	 * Sorts the range [begin, end) of the keys in ascending order, applying
+	 * the same permutation to the indices.
+	 *
+	 * @param keys
+	 * @param indices
+	 * @param begin
+	 * @param end
+	 */
+	public static void sort(double[] keys, int[] indices, int begin, int end) {
+		sort(keys, indices, begin, end, depthLimit(end - begin));
+	}
+
+	private static void sort(double[] keys, int[] indices, int begin, int end, int depthLimit) {
+		while (end - begin > INSERTION_SORT_SIZE) {
+			if (depthLimit-- == 0) {
+				// Too many bad pivots, so falls back to a heap sort to keep
+				// the O(n log n) bound.
+				heapSort(keys, indices, begin, end);
+				return;
+			}
+			int pivot = partition(keys, indices, begin, end);
+			// Recurses on the smaller side to bound the stack depth.
+			if (pivot - begin < end - pivot) {
+				sort(keys, indices, begin, pivot, depthLimit);
+				begin = pivot + 1;
+			} else {
+				sort(keys, indices, pivot + 1, end, depthLimit);
+				end = pivot;
+			}
+		}
+		insertionSort(keys, indices, begin, end);
+	}
+
+	/**
+	 * Partially sorts the range [begin, end) so that the key at nth is the one
+	 * that would be there if the range were sorted, with no greater keys before
+	 * it and no smaller keys after it. The same permutation is applied to the
+	 * indices.
+	 *
+	 * This runs in expected linear time. If the pivots turn out badly, the
+	 * range is heap sorted instead, which bounds the worst case to
+	 * O(n log n).
+	 *
+	 * @param keys
+	 * @param indices
+	 * @param begin
+	 * @param end
+	 * @param nth
+	 */
+	public static void select(double[] keys, int[] indices, int begin, int end, int nth) {
+		int depthLimit = depthLimit(end - begin);
+		while (end - begin > INSERTION_SORT_SIZE) {
+			if (depthLimit-- == 0) {
+				heapSort(keys, indices, begin, end);
+				return;
+			}
+			int pivot = partition(keys, indices, begin, end);
+			if (pivot == nth) {
+				return;
+			} else if (nth < pivot) {
+				end = pivot;
+			} else {
+				begin = pivot + 1;
+			}
+		}
+		insertionSort(keys, indices, begin, end);
+	}
+
+	/**
+	 * Partitions the range around a median of three pivot and returns the
+	 * final position of the pivot.
+	 */
+	private static int partition(double[] keys, int[] indices, int begin, int end) {
+		int last = end - 1;
+		int middle = (begin + end) >>> 1;
+		if (keys[middle] < keys[begin]) {
+			swap(keys, indices, middle, begin);
+		}
+		if (keys[last] < keys[begin]) {
+			swap(keys, indices, last, begin);
+		}
+		if (keys[last] < keys[middle]) {
+			swap(keys, indices, last, middle);
+		}
+		// Places the pivot just before the end, where it stays during the
+		// partition.
+		swap(keys, indices, middle, last - 1);
+		double pivot = keys[last - 1];
+		int i = begin;
+		int j = last - 1;
+		while (true) {
+			while (keys[++i] < pivot) {
+			}
+			while (pivot < keys[--j]) {
+			}
+			if (i >= j) {
+				break;
+			}
+			swap(keys, indices, i, j);
+		}
+		swap(keys, indices, i, last - 1);
+		return i;
+	}
+
+	/**
+	 * Returns the number of partitions allowed before a range of the given
+	 * size is considered badly partitioned.
+	 */
+	private static int depthLimit(int size) {
+		return 2 * (32 - Integer.numberOfLeadingZeros(size));
+	}
+
+	private static void heapSort(double[] keys, int[] indices, int begin, int end) {
+		int size = end - begin;
+		for (int i = size / 2 - 1; i >= 0; --i) {
+			siftDown(keys, indices, begin, i, size);
+		}
+		for (int last = size - 1; last > 0; --last) {
+			swap(keys, indices, begin, begin + last);
+			siftDown(keys, indices, begin, 0, last);
+		}
+	}
+
+	private static void siftDown(double[] keys, int[] indices, int offset, int i, int size) {
+		while (true) {
+			int child = 2 * i + 1;
+			if (child >= size) {
+				return;
+			}
+			if (child + 1 < size && keys[offset + child] < keys[offset + child + 1]) {
+				++child;
+			}
+			if (!(keys[offset + i] < keys[offset + child])) {
+				return;
+			}
+			swap(keys, indices, offset + i, offset + child);
+			i = child;
+		}
+	}
+
+	private static void insertionSort(double[] keys, int[] indices, int begin, int end) {
+		for (int i = begin + 1; i < end; ++i) {
+			double key = keys[i];
+			int index = indices[i];
+			int j = i - 1;
+			while (j >= begin && key < keys[j]) {
+				keys[j + 1] = keys[j];
+				indices[j + 1] = indices[j];
+				--j;
+			}
+			keys[j + 1] = key;
+			indices[j + 1] = index;
+		}
+	}
+
+	private static void swap(double[] keys, int[] indices, int i, int j) {
+		double key = keys[i];
+		keys[i] = keys[j];
+		keys[j] = key;
+		int index = indices[i];
+		indices[i] = indices[j];
+		indices[j] = index;
+	}
+
+	private IndexSort() {
+
+	}
+}
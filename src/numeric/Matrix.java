@@ -10,6 +10,10 @@ import org.ejml.simple.SimpleMatrix;
  *
  */
 public class Matrix {
+	// The smallest pivot of a Cholesky factorization, relative to the
+	// diagonal entry it comes from.
+	private static final double PIVOT_TOLERANCE = 1e-12;
+
 	/**
 	 * Converts a square 2-D array of doubles to a SimpleMatrix object.
 	 * 
@@ -86,6 +90,63 @@ public class Matrix {
 		return convertMatrix(convertMatrix(matrix).invert());
 	}
 
+	/**
+	 * Computes the Cholesky factor of a symmetric positive definite matrix: the
+	 * lower triangular matrix L such that L * L^T is the matrix. Returns null
+	 * if the matrix is singular, or so close to it that the factor would be
+	 * dominated by rounding errors.
+	 * 
+	 * @param matrix
+	 * @return
+	 */
+	public static double[][] cholesky(double[][] matrix) {
+		int n = matrix.length;
+		double[][] result = new double[n][n];
+		for (int i = 0; i < n; ++i) {
+			if (matrix[i].length != n) {
+				throw new Error("matrix must be square");
+			}
+			for (int j = 0; j <= i; ++j) {
+				double sum = matrix[i][j];
+				for (int k = 0; k < j; ++k) {
+					sum -= result[i][k] * result[j][k];
+				}
+				if (i == j) {
+					if (!(sum > PIVOT_TOLERANCE * matrix[i][i])) {
+						return null;
+					}
+					result[i][i] = Math.sqrt(sum);
+				} else {
+					result[i][j] = sum / result[j][j];
+				}
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Computes the inverse of a lower triangular matrix with a non-zero
+	 * diagonal, which is also lower triangular.
+	 * 
+	 * @param matrix
+	 * @return
+	 */
+	public static double[][] invertLower(double[][] matrix) {
+		int n = matrix.length;
+		double[][] result = new double[n][n];
+		for (int j = 0; j < n; ++j) {
+			result[j][j] = 1 / matrix[j][j];
+			for (int i = j + 1; i < n; ++i) {
+				double sum = 0;
+				for (int k = j; k < i; ++k) {
+					sum -= matrix[i][k] * result[k][j];
+				}
+				result[i][j] = sum / matrix[i][i];
+			}
+		}
+		return result;
+	}
+
 	private Matrix() {
 
 	}
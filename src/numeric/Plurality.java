@@ -1,18 +1,22 @@
 package numeric;
 
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * A helper class that keeps track of how many times an object appears in the
  * data and performs plurality voting on the object most seen.
  * 
+ * Ties are broken in favour of the smallest object if the objects are
+ * comparable, as genres are, and of the object seen first otherwise. A vote
+ * therefore never depends on hash codes, which can change from run to run.
+ * 
  * @author Andrei Purcarus
  *
  * @param <T>
  */
 public class Plurality<T> {
-	private Map<T, Integer> counts = new HashMap<>();
+	private Map<T, Integer> counts = new LinkedHashMap<>();
 
 	/**
 	 * Adds the object to the data set.
@@ -28,6 +32,21 @@ public class Plurality<T> {
 		counts.put(object, count);
 	}
 
+	/**
+	 * Adds all the objects in the other data set to this one.
+	 * 
+	 * @param other
+	 */
+	public void addAll(Plurality<T> other) {
+		for (Map.Entry<T, Integer> entry : other.counts.entrySet()) {
+			Integer count = counts.get(entry.getKey());
+			if (count == null) {
+				count = 0;
+			}
+			counts.put(entry.getKey(), count + entry.getValue());
+		}
+	}
+
 	/**
 	 * Gets the plurality vote of the current data set.
 	 * 
@@ -36,13 +55,18 @@ public class Plurality<T> {
 	public T vote() {
 		int max = 0;
 		T result = null;
-		for (T object : counts.keySet()) {
-			int count = counts.get(object);
-			if (count > max) {
+		for (Map.Entry<T, Integer> entry : counts.entrySet()) {
+			int count = entry.getValue();
+			if (count > max || (count == max && precedes(entry.getKey(), result))) {
 				max = count;
-				result = object;
+				result = entry.getKey();
 			}
 		}
 		return result;
 	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> boolean precedes(T lhs, T rhs) {
+		return lhs instanceof Comparable && ((Comparable<T>) lhs).compareTo(rhs) < 0;
+	}
 }
@@ -39,6 +39,31 @@ public class Stats {
 		}
 	}
 
+	/**
+	 * Adds all the data in the other set to this one. Both sets must hold data
+	 * of the same size.
+	 * 
+	 * @param other
+	 */
+	public void addAll(Stats other) {
+		dataCount += other.dataCount;
+		for (int i = 0; i < dataSize; ++i) {
+			sum[i] += other.sum[i];
+			for (int j = 0; j < dataSize; ++j) {
+				sumOfProducts[i][j] += other.sumOfProducts[i][j];
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of data points in the set.
+	 * 
+	 * @return
+	 */
+	public int count() {
+		return dataCount;
+	}
+
 	/**
 	 * Gets the current average of the data. This requires at least one data
 	 * point.
@@ -77,4 +102,26 @@ public class Stats {
 		}
 		return result;
 	}
+
+	/**
+	 * Gets the current scatter matrix of the data: the sum of the outer
+	 * products of the differences between each data point and the average.
+	 * This requires at least one data point.
+	 * 
+	 * @return
+	 */
+	public double[][] scatter() {
+		if (dataCount == 0) {
+			return null;
+		}
+
+		double[] average = average();
+		double[][] result = new double[dataSize][dataSize];
+		for (int i = 0; i < dataSize; ++i) {
+			for (int j = 0; j < dataSize; ++j) {
+				result[i][j] = sumOfProducts[i][j] - dataCount * average[i] * average[j];
+			}
+		}
+		return result;
+	}
 }